@@ -17,6 +17,12 @@ public class AddClassMutation extends ProgramMutation {
         Scene.v().removeClass(addedClass.getSootClass());
     }
 
+    @Override
+    public void redo() {
+        Scene.v().addClass(addedClass.getSootClass());
+        this.program.addMutant(addedClass);
+    }
+
     @Override
     public void randomConstants() {
         // Nothing to do
@@ -5,6 +5,8 @@ import soot.SootField;
 import soot.SootMethod;
 import soot.Type;
 
+import java.util.List;
+
 public class AddFieldMutation extends ClassMutation {
     private SootField addedField;
     private InitializeMutation initializeMutation;
@@ -19,6 +21,7 @@ public class AddFieldMutation extends ClassMutation {
         int modifiers = rand.randModifiers(true, true);
         this.addedField = new SootField(name, type, modifiers);
         sootClass.addField(this.addedField);
+        LocalIndex.fieldsChanged();
 
         // Call constructor inside <clinit> or <init>
         SootMethod meth = null;
@@ -32,6 +35,7 @@ public class AddFieldMutation extends ClassMutation {
             initializeMutation = new InitializeMutation(rand, meth, addedField);
         } catch(MutationException e) {
             sootClass.removeField(this.addedField);
+            LocalIndex.fieldsChanged();
             throw e;
         }
     }
@@ -40,10 +44,23 @@ public class AddFieldMutation extends ClassMutation {
     public void undo() {
         initializeMutation.undo();
         sootClass.removeField(this.addedField);
+        LocalIndex.fieldsChanged();
+    }
+
+    @Override
+    public void redo() {
+        sootClass.addField(this.addedField);
+        LocalIndex.fieldsChanged();
+        initializeMutation.redo();
     }
 
     @Override
     public void randomConstants() {
         initializeMutation.randomConstants();
     }
+
+    @Override
+    public List<BodyMutation> getBodyMutations() {
+        return initializeMutation.getBodyMutations();
+    }
 }
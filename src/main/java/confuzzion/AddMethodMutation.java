@@ -102,10 +102,23 @@ public class AddMethodMutation extends ClassMutation {
         sootClass.removeMethod(addedMethod);
     }
 
+    @Override
+    public void redo() {
+        sootClass.addMethod(addedMethod);
+    }
+
     @Override
     public void randomConstants() {
         if (addedMutation != null) {
             addedMutation.randomConstants();
         }
     }
+
+    @Override
+    public List<BodyMutation> getBodyMutations() {
+        if (addedMutation != null) {
+            return addedMutation.getBodyMutations();
+        }
+        return super.getBodyMutations();
+    }
 }
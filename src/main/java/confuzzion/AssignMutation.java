@@ -8,9 +8,12 @@ import soot.Type;
 import soot.jimple.Jimple;
 
 public class AssignMutation extends MethodMutation {
+    private boolean unsafe;
+
     public AssignMutation(RandomGenerator rand, SootMethod method)
             throws MutationException {
         super(rand, method);
+        unsafe = false;
 
         boolean allow_unsafe_assignment = ConfuzzionOptions.v().allow_unsafe_assignment;
         Body body = method.getActiveBody();
@@ -18,7 +21,7 @@ public class AssignMutation extends MethodMutation {
             throw new MutationException(AssignMutation.class,
                 "No local inside body.");
         }
-        Local localBefore = rand.randLocalRef(body.getLocals(), false);
+        Local localBefore = rand.randLocalRef(body, false);
         if (localBefore == null) {
             throw new MutationException(AssignMutation.class,
                 "No useful reference inside body.");
@@ -29,10 +32,20 @@ public class AssignMutation extends MethodMutation {
         if (!allow_unsafe_assignment || rand.nextBoolean()) {
             // Do a valid assignment to a common parent class
             typeAfter = typeBefore.merge(typeAfter, Scene.v());
-        } //else: do a direct assignment between typeBefore and typeAfter
+        } else {
+            // Do a direct assignment between typeBefore and typeAfter
+            unsafe = true;
+        }
         Local localAfter =
             Jimple.v().newLocal("local" + rand.nextIncrement(), typeAfter);
         mutation.addLocal(localAfter);
         mutation.addUnit(Jimple.v().newAssignStmt(localAfter, localBefore));
     }
+
+    /**
+     * @return true if the assignment is done without checking types
+     */
+    public boolean isUnsafe() {
+        return unsafe;
+    }
 }
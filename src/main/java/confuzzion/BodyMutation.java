@@ -8,37 +8,121 @@ import soot.ValueBox;
 import soot.util.Chain;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 public class BodyMutation {
     protected Body body;
     private ArrayList<Local> addedLocals;
     private ArrayList<Unit> addedUnits;
+    private ArrayList<Unit> redirectedUnits;
+    private ArrayList<Insertion> insertions;
+    private boolean applied;
     private Unit uReturn;
+    private long snapshotGeneration;
+
+    private static final Map<Body, Long> versions =
+        Collections.synchronizedMap(new WeakHashMap<Body, Long>());
+    private static long lastVersion = 0;
+
+    /**
+     * Position of an added unit, to insert it again with redo()
+     */
+    class Insertion {
+        private Unit unit;
+        private Unit point;
+        private InsertionKind kind;
+
+        public Insertion(Unit unit, Unit point, InsertionKind kind) {
+            this.unit = unit;
+            this.point = point;
+            this.kind = kind;
+        }
+    }
+
+    enum InsertionKind {
+        BEFORE, /* Before point without changing jumps. */
+        AFTER, /* After point. */
+        BEFORE_REDIRECT /* Before point and jumps to point are redirected. */
+    }
 
     public BodyMutation(Body body) {
         this.body = body;
         this.addedLocals = new ArrayList<Local>(10);
         this.addedUnits = new ArrayList<Unit>(10);
+        this.redirectedUnits = new ArrayList<Unit>(0);
+        this.insertions = new ArrayList<Insertion>(10);
+        this.applied = true;
         this.uReturn = body.getUnits().getLast();
+        this.snapshotGeneration = ProgramSnapshot.getGeneration();
     }
 
+    /**
+     * Remove the mutation from the body. It must not have been applied
+     * before a snapshot of the body, see ProgramSnapshot.copyOnWrite().
+     */
     public void undo() {
+        if (!applied) {
+            return;
+        }
+        ProgramSnapshot.checkUnchangedSince(body, snapshotGeneration);
         Chain<Local> locals = this.body.getLocals();
         for (Local local : addedLocals) {
             locals.remove(local);
+            LocalIndex.removeLocal(body, local);
         }
-        addedLocals.clear();
+        BodyMutation.changed(body);
         UnitPatchingChain units = this.body.getUnits();
         for (Unit unit : addedUnits) {
             units.getNonPatchingChain().remove(unit);
         }
-        addedUnits.clear();
+        // Jumps are redirected back to the successor
+        for (Unit unit : redirectedUnits) {
+            units.remove(unit);
+        }
+        applied = false;
+    }
+
+    /**
+     * Apply again a mutation that has been undone. The body must be in the
+     * same state as after the call to undo().
+     */
+    public void redo() {
+        if (applied) {
+            return;
+        }
+        ProgramSnapshot.checkUnchangedSince(body, snapshotGeneration);
+        Chain<Local> locals = this.body.getLocals();
+        for (Local local : addedLocals) {
+            locals.add(local);
+            LocalIndex.addLocal(body, local);
+        }
+        BodyMutation.changed(body);
+        UnitPatchingChain units = this.body.getUnits();
+        for (Insertion insertion : insertions) {
+            switch (insertion.kind) {
+            case BEFORE:
+                units.getNonPatchingChain().insertBefore(insertion.unit, insertion.point);
+                break;
+            case AFTER:
+                units.insertAfter(insertion.unit, insertion.point);
+                break;
+            case BEFORE_REDIRECT:
+            default:
+                units.insertBefore(insertion.unit, insertion.point);
+                break;
+            }
+        }
+        applied = true;
     }
 
     public void addLocal(Local local) {
         this.addedLocals.add(local);
         this.body.getLocals().add(local);
+        LocalIndex.addLocal(body, local);
+        BodyMutation.changed(body);
     }
 
     public void addUnit(Unit unit) {
@@ -47,12 +131,60 @@ public class BodyMutation {
 
     public void addUnitBefore(Unit toInsert, Unit point) {
         this.addedUnits.add(toInsert);
+        this.insertions.add(new Insertion(toInsert, point, InsertionKind.BEFORE));
         body.getUnits().getNonPatchingChain().insertBefore(toInsert, point);
+        BodyMutation.changed(body);
+    }
+
+    /**
+     * Insert a unit before point and redirect jumps to point to it
+     * @param toInsert the new unit
+     * @param point    an existing unit
+     */
+    public void addUnitBeforeRedirect(Unit toInsert, Unit point) {
+        this.redirectedUnits.add(toInsert);
+        this.insertions.add(new Insertion(toInsert, point, InsertionKind.BEFORE_REDIRECT));
+        body.getUnits().insertBefore(toInsert, point);
+        BodyMutation.changed(body);
     }
 
     public void addUnitAfter(Unit toInsert, Unit point) {
         this.addedUnits.add(toInsert);
+        this.insertions.add(new Insertion(toInsert, point, InsertionKind.AFTER));
         body.getUnits().insertAfter(toInsert, point);
+        BodyMutation.changed(body);
+    }
+
+    /**
+     * Record a change of a body made without BodyMutation, such as a new
+     * constant in one of its units
+     */
+    public static synchronized void changed(Body body) {
+        versions.put(body, ++lastVersion);
+    }
+
+    /**
+     * @param body a body
+     * @return a number that changes at each change of the body, 0 if it was
+     *         never changed
+     */
+    public static long versionOf(Body body) {
+        Long version = versions.get(body);
+        if (version == null) {
+            return 0;
+        }
+        return version;
+    }
+
+    /**
+     * @return true unless the mutation is undone
+     */
+    public boolean isApplied() {
+        return applied;
+    }
+
+    public Body getBody() {
+        return body;
     }
 
     public List<Local> getLocals() {
@@ -0,0 +1,301 @@
+package confuzzion;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.analysis.Analyzer;
+import org.objectweb.asm.tree.analysis.AnalyzerException;
+import org.objectweb.asm.tree.analysis.BasicValue;
+import org.objectweb.asm.tree.analysis.SimpleVerifier;
+
+import soot.AbstractJasminClass;
+import soot.ArrayType;
+import soot.BooleanType;
+import soot.ByteType;
+import soot.CharType;
+import soot.DoubleType;
+import soot.FloatType;
+import soot.IntType;
+import soot.LongType;
+import soot.RefType;
+import soot.Scene;
+import soot.ShortType;
+import soot.SootClass;
+import soot.SootMethod;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-process bytecode verification of generated classes. It predicts
+ * load-time rejections (VerifyError, bad overrides) without launching the
+ * program. Types are resolved with the Soot Scene instead of a ClassLoader.
+ * When a type cannot be resolved, the value is considered valid: the real
+ * verifier will decide.
+ */
+public class BytecodeVerifier {
+    private VerificationPolicy policy;
+    private boolean active;
+    // Unsafe assignments of each exempt method
+    private HashMap<String, ArrayList<BodyMutation>> exemptMethods;
+
+    private static final Type NULL_TYPE = Type.getObjectType("null");
+    private static final Logger logger = LoggerFactory.getLogger(BytecodeVerifier.class);
+
+    class SootVerifier extends SimpleVerifier {
+        public SootVerifier(Type currentClass, Type currentSuperClass, List<Type> currentClassInterfaces, boolean isInterface) {
+            super(Opcodes.ASM7, currentClass, currentSuperClass, currentClassInterfaces, isInterface);
+        }
+
+        @Override
+        protected boolean isSubTypeOf(BasicValue value, BasicValue expected) {
+            Type expectedType = expected.getType();
+            Type type = value.getType();
+            switch (expectedType.getSort()) {
+            case Type.INT:
+            case Type.FLOAT:
+            case Type.LONG:
+            case Type.DOUBLE:
+                return type.equals(expectedType);
+            case Type.ARRAY:
+            case Type.OBJECT:
+                if (type.equals(NULL_TYPE)) {
+                    return true;
+                } else if (type.getSort() == Type.OBJECT || type.getSort() == Type.ARRAY) {
+                    // The JVM verifier considers interfaces as java.lang.Object
+                    return this.isAssignableFrom(expectedType, type) ||
+                            (expectedType.getSort() == Type.OBJECT && this.isInterface(expectedType));
+                }
+                return false;
+            default:
+                throw new AssertionError();
+            }
+        }
+
+        @Override
+        protected boolean isInterface(Type type) {
+            SootClass sClass = BytecodeVerifier.toSootClass(type);
+            return sClass != null && sClass.isInterface();
+        }
+
+        @Override
+        protected Type getSuperClass(Type type) {
+            SootClass sClass = BytecodeVerifier.toSootClass(type);
+            if (sClass == null || sClass.getSuperclassUnsafe() == null) {
+                return null;
+            }
+            return Type.getObjectType(sClass.getSuperclassUnsafe().getName().replace('.', '/'));
+        }
+
+        @Override
+        protected boolean isAssignableFrom(Type type1, Type type2) {
+            if (type1.equals(type2) || type1.getDescriptor().equals("Ljava/lang/Object;")) {
+                return true;
+            }
+            try {
+                return Scene.v().getOrMakeFastHierarchy().canStoreType(
+                        BytecodeVerifier.toSootType(type2), BytecodeVerifier.toSootType(type1));
+            } catch (RuntimeException e) {
+                // Unknown type: let the real verifier decide
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Constructor
+     * @param policy when to apply verification
+     */
+    public BytecodeVerifier(VerificationPolicy policy) {
+        this.policy = policy;
+        this.active = policy != VerificationPolicy.OFF;
+        this.exemptMethods = new HashMap<String, ArrayList<BodyMutation>>();
+    }
+
+    /**
+     * Decide whether the next execution is verified, according to the
+     * policy and the mutation that has just been applied. With the SAFE
+     * policy, the method where an unsafe assignment has been added is no
+     * more verified to let it reach the real verifier, until the assignment
+     * is undone.
+     * @param mutation the last mutation or null
+     */
+    public void prepare(Mutation mutation) {
+        active = policy != VerificationPolicy.OFF;
+        this.removeUndoneExemptions();
+        if (policy == VerificationPolicy.SAFE &&
+                mutation instanceof AssignMutation &&
+                ((AssignMutation)mutation).isUnsafe()) {
+            SootMethod method = ((AssignMutation)mutation).getBody().getMethod();
+            String key = method.getDeclaringClass().getName() + "." +
+                    method.getName() + AbstractJasminClass.jasminDescriptorOf(method.makeRef());
+            ArrayList<BodyMutation> assignments = exemptMethods.get(key);
+            if (assignments == null) {
+                assignments = new ArrayList<BodyMutation>(1);
+                exemptMethods.put(key, assignments);
+            }
+            for (BodyMutation assignment : mutation.getBodyMutations()) {
+                if (!assignments.contains(assignment)) {
+                    assignments.add(assignment);
+                }
+            }
+            active = false;
+        }
+    }
+
+    /**
+     * Forget the exemptions of a mutation dropped without undo(), for
+     * example when a checkpoint is restored
+     * @param mutation the dropped mutation
+     */
+    public void forget(Mutation mutation) {
+        Iterator<ArrayList<BodyMutation>> iterExempt = exemptMethods.values().iterator();
+        while (iterExempt.hasNext()) {
+            ArrayList<BodyMutation> assignments = iterExempt.next();
+            assignments.removeAll(mutation.getBodyMutations());
+            if (assignments.isEmpty()) {
+                iterExempt.remove();
+            }
+        }
+    }
+
+    private void removeUndoneExemptions() {
+        Iterator<ArrayList<BodyMutation>> iterExempt = exemptMethods.values().iterator();
+        while (iterExempt.hasNext()) {
+            ArrayList<BodyMutation> assignments = iterExempt.next();
+            for (int i = assignments.size() - 1; i >= 0; i--) {
+                if (!assignments.get(i).isApplied()) {
+                    assignments.remove(i);
+                }
+            }
+            if (assignments.isEmpty()) {
+                iterExempt.remove();
+            }
+        }
+    }
+
+    /**
+     * Decide whether the next execution is verified when several mutations
+     * are executed at once. It is not verified if one of them would disable
+     * verification.
+     * @param mutations mutations applied since the last execution
+     */
+    public void prepare(List<Mutation> mutations) {
+        boolean verify = policy != VerificationPolicy.OFF;
+        for (Mutation mutation : mutations) {
+            this.prepare(mutation);
+            verify &= active;
+        }
+        active = verify;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Verify a class
+     * @param bytecode class file content
+     * @throws VerificationException if the class would be rejected at load time
+     */
+    public void verify(byte[] bytecode) throws VerificationException {
+        ClassNode classNode = new ClassNode();
+        new ClassReader(bytecode).accept(classNode, ClassReader.SKIP_DEBUG);
+        String className = classNode.name.replace('/', '.');
+
+        SootClass superClass = null;
+        if (classNode.superName != null) {
+            superClass = BytecodeVerifier.toSootClass(Type.getObjectType(classNode.superName));
+            if (superClass != null && superClass.isFinal()) {
+                throw new VerificationException(className, "Cannot inherit from final class " + superClass.getName());
+            }
+        }
+
+        Type currentClass = Type.getObjectType(classNode.name);
+        Type currentSuperClass = classNode.superName == null ? null : Type.getObjectType(classNode.superName);
+        ArrayList<Type> interfaces = new ArrayList<Type>(classNode.interfaces.size());
+        for (String itf : classNode.interfaces) {
+            interfaces.add(Type.getObjectType(itf));
+        }
+        boolean isInterface = (classNode.access & Opcodes.ACC_INTERFACE) != 0;
+
+        for (MethodNode method : classNode.methods) {
+            if (exemptMethods.containsKey(className + "." + method.name + method.desc)) {
+                continue;
+            }
+            this.checkOverride(className, superClass, method);
+            Analyzer<BasicValue> analyzer = new Analyzer<BasicValue>(
+                    new SootVerifier(currentClass, currentSuperClass, interfaces, isInterface));
+            try {
+                analyzer.analyze(classNode.name, method);
+            } catch (AnalyzerException e) {
+                throw new VerificationException(className, method.name + method.desc + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void checkOverride(String className, SootClass superClass, MethodNode method)
+            throws VerificationException {
+        if (method.name.startsWith("<") ||
+                (method.access & (Opcodes.ACC_STATIC | Opcodes.ACC_PRIVATE)) != 0) {
+            return;
+        }
+        for (SootClass sClass = superClass; sClass != null; sClass = sClass.getSuperclassUnsafe()) {
+            for (SootMethod superMethod : sClass.getMethods()) {
+                if (superMethod.isFinal() &&
+                        !superMethod.isPrivate() &&
+                        superMethod.getName().equals(method.name) &&
+                        AbstractJasminClass.jasminDescriptorOf(superMethod.makeRef()).equals(method.desc)) {
+                    throw new VerificationException(className,
+                            method.name + method.desc + " overrides final method of " + sClass.getName());
+                }
+            }
+        }
+    }
+
+    private static SootClass toSootClass(Type type) {
+        if (type.getSort() != Type.OBJECT) {
+            return null;
+        }
+        String name = type.getClassName();
+        if (!Scene.v().containsClass(name)) {
+            logger.debug("Class {} is not in Scene", name);
+            return null;
+        }
+        return Scene.v().getSootClass(name);
+    }
+
+    private static soot.Type toSootType(Type type) {
+        switch (type.getSort()) {
+        case Type.BOOLEAN:
+            return BooleanType.v();
+        case Type.BYTE:
+            return ByteType.v();
+        case Type.CHAR:
+            return CharType.v();
+        case Type.SHORT:
+            return ShortType.v();
+        case Type.INT:
+            return IntType.v();
+        case Type.LONG:
+            return LongType.v();
+        case Type.FLOAT:
+            return FloatType.v();
+        case Type.DOUBLE:
+            return DoubleType.v();
+        case Type.ARRAY:
+            return ArrayType.v(BytecodeVerifier.toSootType(type.getElementType()), type.getDimensions());
+        case Type.OBJECT:
+            return RefType.v(type.getClassName());
+        default:
+            throw new IllegalArgumentException("Unexpected type " + type);
+        }
+    }
+}
@@ -7,19 +7,16 @@ import soot.SootClass;
 import soot.SootMethod;
 import soot.jimple.Jimple;
 
-import java.util.ArrayList;
-import java.util.HashSet;
-
 public class CallMethodMutation extends MethodMutation {
     private SootMethod calledMethod;
-    private HashSet<SootMethod> methodsSet;
+    private Program program;
     private boolean addsNewMethodCall;
     private InitializeMutation initializeMutation;
 
     public CallMethodMutation(RandomGenerator rand, SootMethod method,
-            HashSet<SootMethod> methodsSet, ArrayList<Mutant> mutants) throws MutationException {
+            Program program) throws MutationException {
         super(rand, method);
-        this.methodsSet = methodsSet;
+        this.program = program;
         addsNewMethodCall = false;
         initializeMutation = null;
 
@@ -28,7 +25,7 @@ public class CallMethodMutation extends MethodMutation {
         SootClass sClass = calledMethod.getDeclaringClass();
         RefType type = sClass.getType();
 
-        Local local = rand.randLocal(body.getLocals(), type);
+        Local local = rand.randLocal(body, type);
 
         if (local == null) {
             local = Jimple.v().newLocal("local" + rand.nextIncrement(), rand.randRefType(method.getDeclaringClass().getName()));
@@ -46,14 +43,8 @@ public class CallMethodMutation extends MethodMutation {
         this.genMethodCall(body, local, calledMethod);
 
         // If the method concerns one of the program class and is not currently executed, mark it as executed
-        if (!methodsSet.contains(calledMethod)) {
-            for (Mutant mut : mutants) {
-                if (mut.getSootClass().equals(calledMethod.getDeclaringClass())) {
-                    methodsSet.add(calledMethod);
-                    addsNewMethodCall = true;
-                    break;
-                }
-            }
+        if (program.getMutant(calledMethod.getDeclaringClass()) != null) {
+            addsNewMethodCall = program.addExecutedMethod(calledMethod);
         }
     }
 
@@ -64,11 +55,22 @@ public class CallMethodMutation extends MethodMutation {
     @Override
     public void undo() {
         if (addsNewMethodCall) {
-            methodsSet.remove(calledMethod);
+            program.removeExecutedMethod(calledMethod);
         }
         if (initializeMutation != null) {
             initializeMutation.undo();
         }
         mutation.undo();
     }
+
+    @Override
+    public void redo() {
+        if (addsNewMethodCall) {
+            program.addExecutedMethod(calledMethod);
+        }
+        if (initializeMutation != null) {
+            initializeMutation.redo();
+        }
+        mutation.redo();
+    }
 }
@@ -0,0 +1,137 @@
+package confuzzion;
+
+import java.util.ArrayList;
+import java.util.Stack;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Snapshots of the program at stack depths 0, then each time the depth
+ * doubles. Each execution is attributed to the deepest checkpoint, so the
+ * rate of successful or violating executions measures how productive the
+ * states reached from each checkpoint are. To recover from a stall or the
+ * stack limit, the program is restored to the most productive checkpoint
+ * instead of undoing a random number of mutations. A restore is not
+ * constant time: it is a pass over the classes, fields and methods of the
+ * program (see ProgramSnapshot), whatever the number of mutations dropped.
+ * Once a checkpoint exists, the mutations under it must not be undone: they
+ * reference the bodies kept by its snapshot.
+ */
+public class Checkpoints {
+    private Program prog;
+    private ArrayList<Checkpoint> checkpoints;
+
+    private static final Logger logger = LoggerFactory.getLogger(Checkpoints.class);
+
+    class Checkpoint {
+        private int depth;
+        private ProgramSnapshot snapshot;
+        private long executions;
+        private long productive;
+
+        public Checkpoint(int depth) {
+            this.depth = depth;
+            this.snapshot = new ProgramSnapshot(prog);
+            this.executions = 0;
+            this.productive = 0;
+        }
+
+        /**
+         * Rate of productive executions, 1/2 without any execution
+         */
+        public double getScore() {
+            return (productive + 1.0) / (executions + 2.0);
+        }
+    }
+
+    /**
+     * Take the first checkpoint, with an empty stack of mutations
+     * @param prog the program
+     */
+    public Checkpoints(Program prog) {
+        this.prog = prog;
+        this.checkpoints = new ArrayList<Checkpoint>();
+        checkpoints.add(new Checkpoint(0));
+    }
+
+    /**
+     * Attribute the status of an execution to the deepest checkpoint
+     * @param status status of a mutation
+     */
+    public void newStatus(Status status) {
+        if (status == Status.NOTEXECUTED || status == Status.REJECTED) {
+            return;
+        }
+        Checkpoint top = checkpoints.get(checkpoints.size() - 1);
+        top.executions++;
+        if (status == Status.SUCCESS || status == Status.VIOLATES) {
+            top.productive++;
+        }
+    }
+
+    /**
+     * @param mutationsStack accepted mutations
+     * @return true if the stack is twice as deep as the deepest checkpoint
+     */
+    public boolean isDue(Stack<Mutation> mutationsStack) {
+        int depth = checkpoints.get(checkpoints.size() - 1).depth;
+        return mutationsStack.size() >= Math.max(1, 2 * depth);
+    }
+
+    /**
+     * Take a checkpoint if it is due. All applied mutations must be on the
+     * stack.
+     * @param mutationsStack accepted mutations
+     * @param statusScreen
+     */
+    public void update(Stack<Mutation> mutationsStack, StatusScreen statusScreen) {
+        if (this.isDue(mutationsStack)) {
+            checkpoints.add(new Checkpoint(mutationsStack.size()));
+            statusScreen.setCounter("checkpoints", checkpoints.size());
+        }
+    }
+
+    /**
+     * Restore the most productive checkpoint under the top of the stack.
+     * Deeper checkpoints are dropped.
+     * @param mutationsStack accepted mutations, popped without undo
+     * @param statusScreen
+     */
+    public void restore(Stack<Mutation> mutationsStack, StatusScreen statusScreen) {
+        int best = -1;
+        for (int i = 0; i < checkpoints.size(); i++) {
+            Checkpoint checkpoint = checkpoints.get(i);
+            // Deepest on equal scores, to keep most of the state
+            if (checkpoint.depth < mutationsStack.size() &&
+                    (best < 0 || checkpoint.getScore() >= checkpoints.get(best).getScore())) {
+                best = i;
+            }
+        }
+        if (best < 0) {
+            return;
+        }
+        Checkpoint checkpoint = checkpoints.get(best);
+        logger.info("Restoring checkpoint at depth {} (score {})", checkpoint.depth, checkpoint.getScore());
+        checkpoint.snapshot.restore(prog);
+        while (mutationsStack.size() > checkpoint.depth) {
+            mutationsStack.pop();
+        }
+        while (checkpoints.size() > best + 1) {
+            checkpoints.remove(checkpoints.size() - 1);
+        }
+        statusScreen.addCounter("checkpoint_restores", 1);
+        statusScreen.setCounter("checkpoints", checkpoints.size());
+        statusScreen.newStackSize(mutationsStack.size());
+    }
+
+    /**
+     * Forget all checkpoints and take a new one with an empty stack, for
+     * example when the stack is cleared
+     */
+    public void reset(StatusScreen statusScreen) {
+        checkpoints.clear();
+        checkpoints.add(new Checkpoint(0));
+        statusScreen.setCounter("checkpoints", checkpoints.size());
+    }
+}
@@ -0,0 +1,85 @@
+package confuzzion;
+
+import soot.Body;
+import soot.Local;
+import soot.RefType;
+import soot.SootField;
+import soot.Value;
+import soot.jimple.Jimple;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Apply several value contracts to a body in one traversal of its locals and
+ * fields, with a single BodyMutation. Each field is loaded once for all the
+ * contracts.
+ */
+public class CompositeContract implements Contract {
+    private ArrayList<ValueContract> contracts;
+
+    public CompositeContract(List<ValueContract> contracts) {
+        this.contracts = new ArrayList<ValueContract>(contracts);
+    }
+
+    public CompositeContract(ValueContract contract) {
+        this(Collections.singletonList(contract));
+    }
+
+    public List<ValueContract> getContracts() {
+        return contracts;
+    }
+
+    @Override
+    public BodyMutation applyCheck(Body body) {
+        BodyMutation mutation = new BodyMutation(body);
+        ArrayList<ValueContract.ValueChecks> checks = new ArrayList<ValueContract.ValueChecks>(contracts.size());
+        boolean checkFields = false;
+        for (ValueContract contract : contracts) {
+            ValueContract.ValueChecks contractChecks = contract.newChecks(body, mutation);
+            checks.add(contractChecks);
+            checkFields |= contractChecks.checksFields();
+        }
+
+        for (Local local : new ArrayList<Local>(body.getLocals())) {
+            if (local.getType() instanceof RefType) {
+                for (ValueContract.ValueChecks contractChecks : checks) {
+                    contractChecks.checkLocal(local);
+                }
+            }
+        }
+
+        if (checkFields && !body.getMethod().isStatic()) {
+            // All fields are loaded in a single local
+            Local thisLocal = body.getThisLocal();
+            Local fieldLocal = null;
+            for (SootField field : body.getMethod().getDeclaringClass().getFields()) {
+                if (!(field.getType() instanceof RefType)) {
+                    continue;
+                }
+                if (fieldLocal == null) {
+                    fieldLocal = Jimple.v().newLocal("contractfield", RefType.v("java.lang.Object"));
+                    mutation.addLocal(fieldLocal);
+                }
+                Value fieldRef = null;
+                if (field.isStatic()) {
+                    fieldRef = Jimple.v().newStaticFieldRef(field.makeRef());
+                } else {
+                    fieldRef = Jimple.v().newInstanceFieldRef(thisLocal, field.makeRef());
+                }
+                mutation.addUnit(Jimple.v().newAssignStmt(fieldLocal, fieldRef));
+                for (ValueContract.ValueChecks contractChecks : checks) {
+                    if (contractChecks.checksFields()) {
+                        contractChecks.checkField(field, fieldLocal);
+                    }
+                }
+            }
+        }
+
+        for (ValueContract.ValueChecks contractChecks : checks) {
+            contractChecks.finish();
+        }
+        return mutation;
+    }
+}
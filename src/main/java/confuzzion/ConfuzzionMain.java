@@ -6,6 +6,10 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Stack;
 import java.util.Timer;
 
@@ -25,6 +29,7 @@ import org.apache.commons.cli.ParseException;
 
 public class ConfuzzionMain {
     private Path resultFolder;
+    private Checkpoints checkpoints;
 
     private static final long MAIN_LOOP_ITERATIONS = -1; // no limit
     private static final int CONSTANTS_TRIES = 1;
@@ -32,10 +37,34 @@ public class ConfuzzionMain {
     private static final int STACK_LIMIT = Integer.MAX_VALUE;
     private static final boolean WITH_JVM = true;
     private static final long TIMER_TIMEOUT = 1000;
+    private static final long MIN_TIMEOUT = 100L;
+    private static final double TIMEOUT_PERCENTILE = 0.99;
+    private static final double TIMEOUT_FACTOR = 3.0;
+    private static final int CALIBRATION_RUNS = 10;
+    private static final long PROGRAM_SIZE_PERIOD = 100;
+    private static final double COST_FACTOR = 2.0;
     private static final Logger logger = LoggerFactory.getLogger(ConfuzzionMain.class);
 
+    /**
+     * Program prepared while the previous one is executed
+     */
+    class Candidate {
+        private Mutation mutation;
+        private Path folder;
+        private List<String> classNames;
+        private Throwable error;
+
+        public Candidate(Mutation mutation, Path folder) {
+            this.mutation = mutation;
+            this.folder = folder;
+            this.classNames = null;
+            this.error = null;
+        }
+    }
+
     public ConfuzzionMain(Path resultFolder) {
         this.resultFolder = resultFolder;
+        this.checkpoints = null;
     }
 
     public static void main(String args[]) {
@@ -70,7 +99,7 @@ public class ConfuzzionMain {
                 constantsTries = Integer.parseInt(line.getOptionValue("c"));
             }
             if (line.hasOption("timeout")) {
-                timeout = Long.parseLong(line.getOptionValue("t"));
+                timeout = Long.parseLong(line.getOptionValue("timeout"));
             }
             if (line.hasOption("l")) {
                 stackLimit = Integer.parseInt(line.getOptionValue("l"));
@@ -95,6 +124,48 @@ public class ConfuzzionMain {
             ConfuzzionOptions.v().fixed_number_of_classes = !line.hasOption("one-class");
             ConfuzzionOptions.v().use_uniform_distribution_for_methods = line.hasOption("uniform-methods-distribution");
             ConfuzzionOptions.v().quiet = line.hasOption("q");
+            if (line.hasOption("metrics-port")) {
+                ConfuzzionOptions.v().metrics_port = Integer.parseInt(line.getOptionValue("metrics-port"));
+            }
+            ConfuzzionOptions.v().json_stats = line.hasOption("json-stats");
+            ConfuzzionOptions.v().jfr = line.hasOption("jfr");
+            if (line.hasOption("verify")) {
+                String policy = line.getOptionValue("verify").trim();
+                try {
+                    ConfuzzionOptions.v().verification_policy =
+                            VerificationPolicy.valueOf(policy.toUpperCase(Locale.ROOT));
+                } catch (IllegalArgumentException e) {
+                    throw new ParseException("Unknown verification policy " + policy +
+                        ", expected one of " + Arrays.toString(VerificationPolicy.values()));
+                }
+            }
+
+            ConfuzzionOptions.v().use_shared_archive = !line.hasOption("no-cds");
+            ConfuzzionOptions.v().pipeline = line.hasOption("pipeline");
+            ConfuzzionOptions.v().adaptive_timeout = line.hasOption("adaptive-timeout");
+            ConfuzzionOptions.v().virtual_threads = line.hasOption("virtual-threads");
+            ConfuzzionOptions.v().layered_loaders = line.hasOption("layered-loaders");
+            ConfuzzionOptions.v().havoc = line.hasOption("havoc");
+            ConfuzzionOptions.v().constants_table = !line.hasOption("no-constants-table");
+            ConfuzzionOptions.v().type_flow_analysis = line.hasOption("type-flow-analysis");
+            ConfuzzionOptions.v().agent = line.hasOption("agent");
+            ConfuzzionOptions.v().cost_aware = line.hasOption("cost-aware");
+            ConfuzzionOptions.v().checkpoints = line.hasOption("checkpoints");
+            if (line.hasOption("compaction-period")) {
+                ConfuzzionOptions.v().compaction_period = Long.parseLong(line.getOptionValue("compaction-period"));
+            }
+            if (line.hasOption("contracts")) {
+                ArrayList<ContractKind> contracts = new ArrayList<ContractKind>();
+                for (String name : line.getOptionValue("contracts").split(",")) {
+                    try {
+                        contracts.add(ContractKind.valueOf(name.trim().toUpperCase(Locale.ROOT)));
+                    } catch (IllegalArgumentException e) {
+                        throw new ParseException("Unknown contract " + name.trim() +
+                            ", expected one of " + Arrays.toString(ContractKind.values()));
+                    }
+                }
+                ConfuzzionOptions.v().contracts = contracts;
+            }
 
             if (!Files.exists(resultFolder)) {
                 Files.createDirectories(resultFolder);
@@ -228,6 +299,129 @@ public class ConfuzzionMain {
                 .required(false)
                 .build();
 
+        final Option metricsPortOption = Option.builder()
+                .longOpt("metrics-port")
+                .desc("Serve Prometheus metrics on http://localhost:<port>/metrics")
+                .hasArg(true)
+                .argName("port")
+                .required(false)
+                .build();
+
+        final Option jsonStatsOption = Option.builder()
+                .longOpt("json-stats")
+                .desc("Append statistics each second as JSON lines to stats.jsonl in the output directory")
+                .hasArg(false)
+                .required(false)
+                .build();
+
+        final Option jfrOption = Option.builder()
+                .longOpt("jfr")
+                .desc("Record Java Flight Recorder events to confuzzion.jfr in the output directory")
+                .hasArg(false)
+                .required(false)
+                .build();
+
+        final Option verifyOption = Option.builder()
+                .longOpt("verify")
+                .desc("Verify bytecode before execution: off, safe (except unsafe assignments) or all / default off")
+                .hasArg(true)
+                .argName("policy")
+                .required(false)
+                .build();
+
+        final Option noCdsOption = Option.builder()
+                .longOpt("no-cds")
+                .desc("Do not create a Class Data Sharing archive to speed up JVM startup")
+                .hasArg(false)
+                .required(false)
+                .build();
+
+        final Option pipelineOption = Option.builder()
+                .longOpt("pipeline")
+                .desc("Prepare the next program while the current one is executed (only with a JVM and one constants try)")
+                .hasArg(false)
+                .required(false)
+                .build();
+
+        final Option adaptiveTimeoutOption = Option.builder()
+                .longOpt("adaptive-timeout")
+                .desc("Use 3 times the 99th percentile of execution times as timeout, at most --timeout")
+                .hasArg(false)
+                .required(false)
+                .build();
+
+        final Option virtualThreadsOption = Option.builder()
+                .longOpt("virtual-threads")
+                .desc("With --threads, execute each program in a virtual thread when the runtime supports it")
+                .hasArg(false)
+                .required(false)
+                .build();
+
+        final Option layeredLoadersOption = Option.builder()
+                .longOpt("layered-loaders")
+                .desc("With --threads, keep unchanged classes without static state in a shared class loader")
+                .hasArg(false)
+                .required(false)
+                .build();
+
+        final Option noConstantsTableOption = Option.builder()
+                .longOpt("no-constants-table")
+                .desc("Launch a JVM for each constants try instead of loading the constants from a table")
+                .hasArg(false)
+                .required(false)
+                .build();
+
+        final Option havocOption = Option.builder()
+                .longOpt("havoc")
+                .desc("Apply several mutations before each execution and bisect them on failure (disables --pipeline and -c)")
+                .hasArg(false)
+                .required(false)
+                .build();
+
+        final Option typeFlowAnalysisOption = Option.builder()
+                .longOpt("type-flow-analysis")
+                .desc("Only check the type of the reference locals that an intra-procedural analysis cannot prove safe")
+                .hasArg(false)
+                .required(false)
+                .build();
+
+        final Option contractsOption = Option.builder()
+                .longOpt("contracts")
+                .desc("Comma-separated contracts to check: typeconfusion, equals / default typeconfusion")
+                .hasArg(true)
+                .argName("contracts")
+                .required(false)
+                .build();
+
+        final Option agentOption = Option.builder()
+                .longOpt("agent")
+                .desc("Check type confusion with a Java agent in the JVM of the program instead of checks added to the bodies")
+                .hasArg(false)
+                .required(false)
+                .build();
+
+        final Option compactionPeriodOption = Option.builder()
+                .longOpt("compaction-period")
+                .desc("Remove dead code from the program every N main loop iterations if it still executes successfully (clears the mutations stack) / default 0 (disabled)")
+                .hasArg(true)
+                .argName("N")
+                .required(false)
+                .build();
+
+        final Option costAwareOption = Option.builder()
+                .longOpt("cost-aware")
+                .desc("Mutate small classes and methods more often and revert mutations when executions become " + COST_FACTOR + " times slower than the state at half the depth of the stack")
+                .hasArg(false)
+                .required(false)
+                .build();
+
+        final Option checkpointsOption = Option.builder()
+                .longOpt("checkpoints")
+                .desc("Restore the most productive checkpoint on stalls instead of undoing a random number of mutations")
+                .hasArg(false)
+                .required(false)
+                .build();
+
         final Option targetClassesOption = Option.builder("t")
                 .longOpt("targets")
                 .desc("List of target classes in Java form separated by ':'")
@@ -260,6 +454,23 @@ public class ConfuzzionMain {
         options.addOption(startWithOneClass);
         options.addOption(uniformMethodsDistribution);
         options.addOption(quietOption);
+        options.addOption(metricsPortOption);
+        options.addOption(jsonStatsOption);
+        options.addOption(jfrOption);
+        options.addOption(verifyOption);
+        options.addOption(noCdsOption);
+        options.addOption(pipelineOption);
+        options.addOption(adaptiveTimeoutOption);
+        options.addOption(virtualThreadsOption);
+        options.addOption(layeredLoadersOption);
+        options.addOption(havocOption);
+        options.addOption(noConstantsTableOption);
+        options.addOption(typeFlowAnalysisOption);
+        options.addOption(contractsOption);
+        options.addOption(agentOption);
+        options.addOption(compactionPeriodOption);
+        options.addOption(costAwareOption);
+        options.addOption(checkpointsOption);
         options.addOption(targetClassesOption);
         options.addOption(helpOption);
 
@@ -274,14 +485,26 @@ public class ConfuzzionMain {
         logger.info("Soot Class Path: {}", Scene.v().getSootClassPath());
         logger.info("Default java.home: {}", System.getProperty("java.home"));
         logger.info("Target java.home: {}", javahome);
+        if (ConfuzzionOptions.v().agent && (!withJVM || Util.getAgentPath() == null)) {
+            logger.warn("The contract agent requires a separate JVM and the agent jar");
+            ConfuzzionOptions.v().agent = false;
+        }
 
         RandomGenerator rand = new RandomGenerator(targets);
+        BytecodeVerifier verifier = new BytecodeVerifier(ConfuzzionOptions.v().verification_policy);
+        SharedArchive sharedArchive = null;
+        if (withJVM && ConfuzzionOptions.v().use_shared_archive) {
+            sharedArchive = SharedArchive.create(javahome, Util.getRuntimePath(),
+                    Paths.get(resultFolder.toAbsolutePath().toString(), "cds"), Arrays.asList(targets));
+        }
 
         Program currentProg = null;
         if (seedFolder != null) {
             logger.info("Seed folder: {}", seedFolder);
             Scene.v().extendSootClassPath(seedFolder.toString());
             currentProg = new Program(rand, "Test", false);
+            currentProg.setVerifier(verifier);
+            currentProg.setSharedArchive(sharedArchive);
 
             // Load all classes (.jimple/.class) in folder except the seed
             File folderFile = seedFolder.toFile();
@@ -307,8 +530,11 @@ public class ConfuzzionMain {
                 }
             }
 
-            // Check all bodies for type confusion
-            ArrayList<BodyMutation> bodyMutations = currentProg.addContractCheckAllBodies(new ContractTypeConfusion());
+            // Check all bodies for contracts violations
+            ArrayList<ContractCheck> seedChecks = new ArrayList<ContractCheck>();
+            for (Contract contract : ConfuzzionMain.newContracts()) {
+                seedChecks.addAll(currentProg.addContractCheckAllBodies(contract));
+            }
             Path tmpFolder = Paths.get(resultFolder.toAbsolutePath().toString(), "seed");
             try {
                 try {
@@ -323,7 +549,7 @@ public class ConfuzzionMain {
                 } else { //with threads
                     currentProg.genAndLaunch(timeout);
                 }
-                currentProg.removeContractsChecks(bodyMutations);
+                currentProg.removeContractsChecks(seedChecks);
             } catch(Throwable e) {
                 Throwable cause = Util.getCause(e);
                 if (cause instanceof ContractCheckException) {
@@ -336,6 +562,8 @@ public class ConfuzzionMain {
             }
         } else {
             currentProg = new Program(rand, "Test", true);
+            currentProg.setVerifier(verifier);
+            currentProg.setSharedArchive(sharedArchive);
         }
 
         if (ConfuzzionOptions.v().fixed_number_of_classes) {
@@ -345,46 +573,128 @@ public class ConfuzzionMain {
             }
         } //else: classes are added with AddClassMutation with any super type
 
-        ArrayList<Contract> contracts = new ArrayList<Contract>(1);
-        contracts.add(new ContractTypeConfusion());
+        ArrayList<Contract> contracts = ConfuzzionMain.newContracts();
         Stack<Mutation> mutationsStack = new Stack<Mutation>();
+        HashSet<Long> crashSignatures = new HashSet<Long>();
 
         // Refresh Status in command line each second
         Timer timer = new Timer();
         StatusScreen statusScreen = new StatusScreen();
-        if (!ConfuzzionOptions.v().quiet) {
+        statusScreen.setPrintScreen(!ConfuzzionOptions.v().quiet);
+        if (ConfuzzionOptions.v().json_stats) {
+            statusScreen.setStatsFile(Paths.get(resultFolder.toAbsolutePath().toString(), "stats.jsonl"));
+        }
+        MetricsServer metricsServer = null;
+        if (ConfuzzionOptions.v().metrics_port >= 0) {
+            try {
+                metricsServer = new MetricsServer(statusScreen, ConfuzzionOptions.v().metrics_port);
+                metricsServer.start();
+            } catch (IOException e) {
+                logger.error("Cannot start metrics server on port {}", ConfuzzionOptions.v().metrics_port, e);
+            }
+        }
+        if (!ConfuzzionOptions.v().quiet || ConfuzzionOptions.v().json_stats || metricsServer != null) {
             timer.schedule(statusScreen, 0, TIMER_TIMEOUT);
         }
+        if (ConfuzzionOptions.v().jfr) {
+            Profiler.start(Paths.get(resultFolder.toAbsolutePath().toString(), "confuzzion.jfr"));
+        }
         final long startTime = System.nanoTime();
 
-        for (long loop1 = 0; loop1 < mainloop_turn || mainloop_turn < 0; loop1++) {
-            Mutation mutation = null;
+        boolean pipeline = ConfuzzionOptions.v().pipeline;
+        if (pipeline && (!withJVM || constants_tries != 1)) {
+            logger.warn("Pipelined execution requires a separate JVM and only one constants try");
+            pipeline = false;
+        }
+        Candidate candidate = null;
 
-            try {
-                // Random mutation (program level | class level | method level)
-                mutation = currentProg.randomMutation();
-            } catch (MutationException e) {
-                logger.warn("Exception while applying mutation", e);
-                e.undoMutation();
-                statusScreen.newMutation(e.getMutationClass(), Status.FAILED, 0);
-                continue;
-            } catch (Throwable e) {
-                logger.error("Error while applying mutation", e);
-                break;
+        TimeoutEstimator timeoutEstimator = null;
+        if (ConfuzzionOptions.v().adaptive_timeout) {
+            timeoutEstimator = new TimeoutEstimator(timeout, MIN_TIMEOUT, TIMEOUT_PERCENTILE, TIMEOUT_FACTOR);
+            this.calibrate(currentProg, timeoutEstimator, withJVM, javahome);
+            logger.info("Calibrated timeout: {} ms", timeoutEstimator.getTimeout());
+        }
+
+        HavocStage havoc = null;
+        if (ConfuzzionOptions.v().havoc) {
+            if (pipeline || constants_tries != 1) {
+                logger.warn("Havoc stage disables pipelined execution and constants tries");
+                pipeline = false;
             }
+            havoc = new HavocStage(this, currentProg, contracts, verifier, statusScreen, crashSignatures,
+                    withJVM, javahome, timeout, startTime);
+            havoc.setTimeoutEstimator(timeoutEstimator);
+        }
 
-            logger.info("Mutation: {}", mutation.getClass().toString());
-            if (logger.isDebugEnabled()) {
-                logger.debug(currentProg.toString());
+        if (ConfuzzionOptions.v().checkpoints) {
+            checkpoints = new Checkpoints(currentProg);
+            if (havoc != null) {
+                havoc.setCheckpoints(checkpoints);
             }
+        }
 
-            // Add contracts checks
-            ArrayList<BodyMutation> contractsMutations =
-                    currentProg.addContractsChecks(contracts, mutation);
-            // Save current classes to unique folder
-            Path folder = Paths.get(
-                    resultFolder.toAbsolutePath().toString(),
-                    loop1 + "-" + mutation.getClass().getSimpleName());
+        // Constants tries in a single JVM
+        boolean constantsTable = withJVM && !pipeline && constants_tries > 1 &&
+                ConfuzzionOptions.v().constants_table;
+
+        for (long loop1 = 0; loop1 < mainloop_turn || mainloop_turn < 0; loop1++) {
+            if (havoc != null) {
+                try {
+                    havoc.run(loop1, mutationsStack, rand);
+                } catch (Throwable e) {
+                    logger.error("Error in havoc stage", e);
+                    break;
+                }
+                if ((statusScreen.isStalled() && mutationsStack.size() > 0) || mutationsStack.size() >= stackLimit
+                        || this.isTooExpensive(currentProg, mutationsStack, statusScreen)) {
+                    this.revertMutations(currentProg, mutationsStack, rand, statusScreen);
+                    currentProg.getCost().resetAverage();
+                }
+                if (checkpoints != null) {
+                    checkpoints.update(mutationsStack, statusScreen);
+                }
+                this.periodicCompaction(currentProg, loop1, mutationsStack, withJVM, javahome, timeout, statusScreen);
+                continue;
+            }
+
+            Mutation mutation = null;
+            ArrayList<ContractCheck> contractsChecks = null;
+            Path folder = null;
+
+            if (candidate != null) {
+                // Mutation already applied and emitted during the last execution
+                mutation = candidate.mutation;
+                contractsChecks = new ArrayList<ContractCheck>(0);
+                folder = candidate.folder;
+            } else {
+                try {
+                    mutation = this.applyMutation(currentProg, statusScreen);
+                } catch (Throwable e) {
+                    logger.error("Error while applying mutation", e);
+                    break;
+                }
+                if (mutation == null) {
+                    continue;
+                }
+
+                // Add contracts checks
+                verifier.prepare(mutation);
+                contractsChecks = this.addContractsChecks(currentProg, contracts, mutation, statusScreen);
+                // Save current classes to unique folder
+                folder = this.getFolder(loop1, mutation);
+            }
+            int tries = constants_tries;
+            ParameterizedConstants constants = null;
+            int constantsRow = 0;
+            if (constantsTable) {
+                constants = new ParameterizedConstants(mutation, rand, constants_tries);
+                if (constants.size() == 0) {
+                    // Other tries would execute the same program
+                    constants.restore(0);
+                    constants = null;
+                }
+                tries = 1;
+            }
             Boolean keepFolder = false;
             int loop2 = 0;
             Status status = Status.NOTEXECUTED;
@@ -399,67 +709,153 @@ public class ConfuzzionMain {
                     }
                 }
 
-                for (loop2 = 0; loop2 < constants_tries; loop2++) {
+                for (loop2 = 0; loop2 < tries; loop2++) {
+                    long startPhase = System.nanoTime();
+                    Object event = Profiler.beginExecution();
+                    Status execStatus = Status.SUCCESS;
+                    long emissionTime = 0;
+                    long executionTime = -1;
+                    long runTime = -1;
+                    long currentTimeout = timeout;
+                    if (timeoutEstimator != null) {
+                        currentTimeout = timeoutEstimator.getTimeout();
+                        statusScreen.setCounter("timeout_ms", currentTimeout);
+                    }
                     try {
-                        if (withJVM) {
-                            currentProg.genAndLaunchWithJVM(javahome, folder.toString(), timeout);
+                        if (pipeline) {
+                            Process process = null;
+                            if (candidate != null) {
+                                Candidate current = candidate;
+                                candidate = null;
+                                if (current.error != null) {
+                                    throw current.error;
+                                }
+                                process = currentProg.startJVM(javahome, folder.toString(), current.classNames);
+                            } else {
+                                List<String> classNames = currentProg.genClassFiles(folder.toString());
+                                emissionTime = currentProg.getEmissionTime();
+                                process = currentProg.startJVM(javahome, folder.toString(), classNames);
+                            }
+                            long launchTime = System.nanoTime();
+                            // Class files are written: prepare the next program during the execution
+                            this.removeContractsChecks(currentProg, contractsChecks, mutation, statusScreen);
+                            contractsChecks.clear();
+                            if (loop1 + 1 < mainloop_turn || mainloop_turn < 0) {
+                                candidate = this.prepareCandidate(currentProg, contracts, verifier, statusScreen, loop1 + 1);
+                            }
+                            long startWait = System.nanoTime();
+                            try {
+                                Util.waitJVM(process, currentTimeout - (startWait - launchTime) / 1000000);
+                            } finally {
+                                executionTime = System.nanoTime() - startWait;
+                                runTime = System.nanoTime() - launchTime;
+                            }
+                        } else if (constants != null) {
+                            Path table = Paths.get(folder.toString(), "constants.bin");
+                            constants.write(table);
+                            List<String> classNames = currentProg.genClassFiles(folder.toString());
+                            Process process = currentProg.startJVM(javahome, folder.toString(), classNames, table);
+                            long launchTime = System.nanoTime();
+                            WorkerResult result = null;
+                            constantsRow = constants.getNumberOfRows() - 1;
+                            try {
+                                // The timeout applies to each row
+                                result = Util.readResult(process, currentTimeout * constants.getNumberOfRows());
+                            } finally {
+                                runTime = (System.nanoTime() - launchTime) / constants.getNumberOfRows();
+                            }
+                            if (result != null) {
+                                constantsRow = result.getConstantsRow();
+                            }
+                            statusScreen.addCounter("constants_rows", constantsRow + 1);
+                            Util.checkResult(result);
+                        } else if (withJVM) {
+                            currentProg.genAndLaunchWithJVM(javahome, folder.toString(), currentTimeout);
                         } else { //with threads
-                            currentProg.genAndLaunch(timeout);
+                            try {
+                                currentProg.genAndLaunch(currentTimeout);
+                            } finally {
+                                ConfuzzionMain.newInProcessExecution(currentProg.getExecutor(), statusScreen);
+                            }
                         }
                     } catch(Throwable e2) {
-                        Throwable cause = Util.getCause(e2);
-                        if (cause instanceof ContractCheckException || loop2 == constants_tries - 1) {
+                        execStatus = ConfuzzionMain.executionStatus(e2);
+                        if (execStatus == Status.REJECTED) {
+                            // Not executed, other constants will not help
+                            throw e2;
+                        } else if (execStatus == Status.VIOLATES || loop2 == tries - 1) {
                             loop2++;
                             throw e2;
                         } else {
                             mutation.randomConstants();
                         }
+                    } finally {
+                        Profiler.commitExecution(event, execStatus, withJVM);
+                        if (!pipeline) {
+                            emissionTime = currentProg.getEmissionTime();
+                        }
+                        if (executionTime < 0) {
+                            executionTime = System.nanoTime() - startPhase - emissionTime;
+                        }
+                        statusScreen.newPhaseTime(Phase.EMISSION, emissionTime);
+                        statusScreen.newPhaseTime(Phase.EXECUTION, executionTime);
+                        if (timeoutEstimator != null) {
+                            this.newExecution(timeoutEstimator, execStatus,
+                                    runTime < 0 ? executionTime : runTime, currentTimeout, statusScreen);
+                        }
+                        if (execStatus == Status.SUCCESS) {
+                            // The mutation is not on the stack yet
+                            currentProg.getCost().newExecution(emissionTime + (runTime < 0 ? executionTime : runTime),
+                                    mutationsStack.size() + 1);
+                        }
                     }
                 }
 
+                if (constants != null) {
+                    constants.restore(constantsRow);
+                }
                 // Remove contracts checks for next turn
-                currentProg.removeContractsChecks(contractsMutations);
+                this.removeContractsChecks(currentProg, contractsChecks, mutation, statusScreen);
                 // Add mutation to the stack
                 mutationsStack.push(mutation);
                 status = Status.SUCCESS;
             } catch(Throwable e) {
                 logger.warn("Exception while executing program", e);
-                Throwable cause = Util.getCause(e);
-                if (cause instanceof ContractCheckException) {
+                if (constants != null) {
+                    // Keep the constants that made the program fail
+                    constants.restore(constantsRow);
+                }
+                // The next program has been built on top of this mutation
+                candidate = this.discardCandidate(currentProg, candidate, statusScreen);
+                status = ConfuzzionMain.executionStatus(e);
+                if (status == Status.CRASHED) {
+                    ConfuzzionMain.newCrash(e, crashSignatures, statusScreen);
+                } else if (status == Status.VIOLATES) {
                     keepFolder = true;
-                    if (!withJVM) {
-                        try {
-                            Files.createDirectories(folder);
-                            currentProg.saveAsClassFiles(folder.toString());
-                        } catch(IOException e2) {
-                            logger.error("Printing last program generated:\n{}", currentProg.toString(), e2);
-                            break;
-                        }
+                    if (contractsChecks.isEmpty()) {
+                        // Checks already removed when pipelined
+                        contractsChecks = this.addContractsChecks(currentProg, contracts, mutation, statusScreen);
                     }
-                    // Save current classes also as jimple files
-                    currentProg.saveAsJimpleFiles(folder.toString());
-                    // Save stats to stats.txt
-                    String statsFile = Paths.get(folder.toString(), "stats.txt").toString();
-                    String content = String.format("Found violation in %d ns\nStacked mutations: %d\n", System.nanoTime() - startTime, mutationsStack.size());
-                    logger.info(content);
                     try {
-                        Util.writeToFile(statsFile, content);
-                    } catch (IOException e1) {
-                        logger.error("Writing file {}", statsFile, e1);
+                        // Classes written for the constants table read the
+                        // constants that have just been restored from it
+                        this.saveViolation(currentProg, folder, withJVM && constants == null,
+                                mutationsStack.size(), startTime);
+                    } catch(IOException e2) {
+                        logger.error("Printing last program generated:\n{}", currentProg.toString(), e2);
+                        break;
                     }
-                    status = Status.VIOLATES;
-                } else if (cause instanceof InterruptedException) {
-                    status = Status.INTERRUPTED;
-                } else {
-                    status = Status.CRASHED;
                 }
                 // Remove contracts checks
-                currentProg.removeContractsChecks(contractsMutations);
+                this.removeContractsChecks(currentProg, contractsChecks, mutation, statusScreen);
                 // Bad sample, revert mutation
-                mutation.undo();
+                this.undoMutation(currentProg, mutation, statusScreen);
             } finally {
                 // Update status screen
                 statusScreen.newMutation(mutation.getClass(), status, loop2);
+                if (checkpoints != null) {
+                    checkpoints.newStatus(status);
+                }
                 if (mutation instanceof CallMethodMutation) {
                     CallMethodMutation cmm = (CallMethodMutation)mutation;
                     rand.addMethodCallStatus(cmm.getCalledMethod(), status == Status.SUCCESS || status == Status.VIOLATES);
@@ -475,19 +871,483 @@ public class ConfuzzionMain {
                 }
             }
 
-            if ((statusScreen.isStalled() && mutationsStack.size() > 0) || mutationsStack.size() >= stackLimit) {
-                // Revert a random number of mutations
-                int toRevert = rand.nextUint(mutationsStack.size());
-                while(toRevert-- > 0) {
-                    mutationsStack.pop().undo();
-                }
-                // Refresh stack size on status screen
-                statusScreen.newStackSize(mutationsStack.size());
+            if ((statusScreen.isStalled() && mutationsStack.size() > 0) || mutationsStack.size() >= stackLimit
+                    || this.isTooExpensive(currentProg, mutationsStack, statusScreen)) {
+                candidate = this.discardCandidate(currentProg, candidate, statusScreen);
+                this.revertMutations(currentProg, mutationsStack, rand, statusScreen);
+                currentProg.getCost().resetAverage();
+            }
+            if (checkpoints != null && checkpoints.isDue(mutationsStack)) {
+                // The candidate is not on the stack yet
+                candidate = this.discardCandidate(currentProg, candidate, statusScreen);
+                checkpoints.update(mutationsStack, statusScreen);
             }
+            if (ConfuzzionMain.isCompactionLoop(loop1)) {
+                // The candidate would be built on bodies replaced by the compaction
+                candidate = this.discardCandidate(currentProg, candidate, statusScreen);
+            }
+            this.periodicCompaction(currentProg, loop1, mutationsStack, withJVM, javahome, timeout, statusScreen);
         }
+        this.discardCandidate(currentProg, candidate, statusScreen);
         // Stop automatic call to status.run()
         timer.cancel();
+        if (metricsServer != null) {
+            metricsServer.stop();
+        }
+        Profiler.stop();
         // Print a last time the status screen
+        statusScreen.setPrintScreen(true);
         statusScreen.run();
     }
+
+    /**
+     * Execute the initial program several times to get first estimates of
+     * the execution time
+     */
+    private void calibrate(Program prog, TimeoutEstimator timeoutEstimator, boolean withJVM, String javahome) {
+        Path folder = Paths.get(resultFolder.toAbsolutePath().toString(), "calibration");
+        try {
+            Files.createDirectories(folder);
+            for (int i = 0; i < CALIBRATION_RUNS; i++) {
+                long startExecution = System.nanoTime();
+                long emissionTime = 0;
+                try {
+                    if (withJVM) {
+                        prog.genAndLaunchWithJVM(javahome, folder.toString(), timeoutEstimator.getMaxTimeout());
+                    } else {
+                        prog.genAndLaunch(timeoutEstimator.getMaxTimeout());
+                    }
+                    emissionTime = prog.getEmissionTime();
+                } catch (Throwable e) {
+                    logger.warn("Calibration run failed", e);
+                    continue;
+                }
+                timeoutEstimator.newExecutionTime(System.nanoTime() - startExecution - emissionTime);
+            }
+            Util.deleteDirectory(folder);
+        } catch (IOException e) {
+            logger.error("Calibration folder {}", folder, e);
+        }
+    }
+
+    /**
+     * Update the timeout estimation after an execution
+     * @param execStatus status of the execution
+     * @param nanos      duration of the execution
+     * @param timeout    timeout used for the execution in milliseconds
+     */
+    void newExecution(TimeoutEstimator timeoutEstimator,
+            Status execStatus,
+            long nanos,
+            long timeout,
+            StatusScreen statusScreen) {
+        if (execStatus == Status.INTERRUPTED) {
+            long saved = timeoutEstimator.getMaxTimeout() - timeout;
+            if (saved > 0) {
+                statusScreen.addCounter("hangs_cut_early", 1);
+                statusScreen.addCounter("timeout_saved_ms", saved);
+            }
+        } else if (execStatus != Status.REJECTED) {
+            timeoutEstimator.newExecutionTime(nanos);
+        }
+    }
+
+    /**
+     * Apply a random mutation
+     * @return the mutation or null if the mutation failed
+     */
+    Mutation applyMutation(Program prog, StatusScreen statusScreen) {
+        long startPhase = System.nanoTime();
+        Object event = Profiler.beginMutation();
+        Mutation mutation = null;
+        try {
+            // Random mutation (program level | class level | method level)
+            mutation = prog.randomMutation();
+        } catch (MutationException e) {
+            logger.warn("Exception while applying mutation", e);
+            e.undoMutation();
+            Profiler.commitFailedMutation(event, e.getMutationClass());
+            statusScreen.newPhaseTime(Phase.MUTATION, System.nanoTime() - startPhase);
+            statusScreen.newMutation(e.getMutationClass(), Status.FAILED, 0);
+            return null;
+        }
+        Profiler.commitMutation(event, "apply", mutation);
+        statusScreen.newPhaseTime(Phase.MUTATION, System.nanoTime() - startPhase);
+
+        logger.info("Mutation: {}", mutation.getClass().toString());
+        if (logger.isDebugEnabled()) {
+            logger.debug(prog.toString());
+        }
+        return mutation;
+    }
+
+    private Path getFolder(long loop, Mutation mutation) {
+        return this.getFolder(loop, mutation.getClass().getSimpleName());
+    }
+
+    Path getFolder(long loop, String name) {
+        return Paths.get(
+                resultFolder.toAbsolutePath().toString(),
+                loop + "-" + name);
+    }
+
+    /**
+     * Save a program that violates a contract. The contracts checks must
+     * still be in the program.
+     * @param folder where class files have been written with a JVM
+     * @param classFilesSaved true if the class files of the folder are those
+     *        of the program, false to write them again, for example after the
+     *        constants of the table have been put back in the program
+     * @param stackedMutations number of mutations under the last one
+     * @throws IOException if class files cannot be written
+     */
+    void saveViolation(Program prog, Path folder, boolean classFilesSaved, int stackedMutations, long startTime)
+            throws IOException {
+        if (!classFilesSaved) {
+            Files.createDirectories(folder);
+            // Classes written for the table no longer need it
+            Files.deleteIfExists(Paths.get(folder.toString(), "constants.bin"));
+            prog.saveAsClassFiles(folder.toString());
+        }
+        // Save current classes also as jimple files
+        prog.saveAsJimpleFiles(folder.toString());
+        // Save stats to stats.txt
+        String statsFile = Paths.get(folder.toString(), "stats.txt").toString();
+        String content = String.format("Found violation in %d ns\nStacked mutations: %d\n", System.nanoTime() - startTime, stackedMutations);
+        logger.info(content);
+        try {
+            Util.writeToFile(statsFile, content);
+        } catch (IOException e1) {
+            logger.error("Writing file {}", statsFile, e1);
+        }
+    }
+
+    /**
+     * @param loop index of the main loop
+     * @return true if the program is compacted at the end of this loop
+     */
+    private static boolean isCompactionLoop(long loop) {
+        long period = ConfuzzionOptions.v().compaction_period;
+        return period > 0 && (loop + 1) % period == 0;
+    }
+
+    /**
+     * Report the size of the program and compact it when the period of
+     * compaction is reached
+     */
+    private void periodicCompaction(Program prog,
+            long loop,
+            Stack<Mutation> mutationsStack,
+            boolean withJVM,
+            String javahome,
+            long timeout,
+            StatusScreen statusScreen) {
+        if (ConfuzzionMain.isCompactionLoop(loop)) {
+            this.compactProgram(prog, loop, mutationsStack, withJVM, javahome, timeout, statusScreen);
+        } else if ((loop + 1) % PROGRAM_SIZE_PERIOD != 0) {
+            return;
+        }
+        statusScreen.setCounter("program_units", prog.getNumberOfUnits());
+        statusScreen.setCounter("program_bytes", prog.getCost().getTotalSize());
+        statusScreen.setCounter("program_execution_us", (long)(prog.getCost().getAverageNanos() / 1000));
+    }
+
+    /**
+     * @return true if the cost of executions must be reduced by reverting
+     *         mutations
+     */
+    private boolean isTooExpensive(Program prog, Stack<Mutation> mutationsStack, StatusScreen statusScreen) {
+        if (!ConfuzzionOptions.v().cost_aware || mutationsStack.isEmpty() ||
+                !prog.getCost().isTooExpensive(COST_FACTOR, mutationsStack.size())) {
+            return false;
+        }
+        statusScreen.addCounter("expensive_reverts", 1);
+        return true;
+    }
+
+    /**
+     * Remove dead code from the program and keep the compaction only if the
+     * compacted program executes as the program did: same status and, for a
+     * crash or a violation, same exception signature
+     * @return true if the compaction is kept: the mutations of the stack can
+     *         no longer be undone and the stack is cleared
+     */
+    private boolean compactProgram(Program prog,
+            long loop,
+            Stack<Mutation> mutationsStack,
+            boolean withJVM,
+            String javahome,
+            long timeout,
+            StatusScreen statusScreen) {
+        ProgramCompaction compaction = new ProgramCompaction(prog);
+        if (compaction.isEmpty()) {
+            return false;
+        }
+        Path folder = this.getFolder(loop, "Compaction");
+        // Reference execution of the program before the compaction
+        compaction.undo();
+        String expected = this.executionOutcome(prog, folder, withJVM, javahome, timeout, statusScreen);
+        compaction.redo();
+        String outcome = this.executionOutcome(prog, folder, withJVM, javahome, timeout, statusScreen);
+        // An interrupted or rejected execution cannot be compared
+        if (!expected.equals(outcome) ||
+                expected.startsWith(Status.INTERRUPTED.name()) ||
+                expected.startsWith(Status.REJECTED.name())) {
+            logger.info("Compacted program does not execute as before: {} instead of {}", outcome, expected);
+            compaction.undo();
+            prog.updateWeights();
+            statusScreen.addCounter("compactions_reverted", 1);
+            return false;
+        }
+        prog.updateWeights();
+        logger.info("Compaction removed {} units and {} locals", compaction.getRemovedUnits(), compaction.getRemovedLocals());
+        statusScreen.addCounter("compactions", 1);
+        statusScreen.addCounter("compacted_units", compaction.getRemovedUnits());
+        mutationsStack.clear();
+        statusScreen.newStackSize(0);
+        if (checkpoints != null) {
+            checkpoints.reset(statusScreen);
+        }
+        prog.getCost().resetDepths();
+        return true;
+    }
+
+    /**
+     * Execute the program once
+     * @return status of the execution, with the signature of the exception
+     *         for a crash or a violation
+     */
+    private String executionOutcome(Program prog,
+            Path folder,
+            boolean withJVM,
+            String javahome,
+            long timeout,
+            StatusScreen statusScreen) {
+        try {
+            if (withJVM) {
+                Files.createDirectories(folder);
+                prog.genAndLaunchWithJVM(javahome, folder.toString(), timeout);
+            } else {
+                try {
+                    prog.genAndLaunch(timeout);
+                } finally {
+                    ConfuzzionMain.newInProcessExecution(prog.getExecutor(), statusScreen);
+                }
+            }
+            return Status.SUCCESS.name();
+        } catch (Throwable e) {
+            Status status = ConfuzzionMain.executionStatus(e);
+            if (status == Status.CRASHED || status == Status.VIOLATES) {
+                return status.name() + " " + Long.toHexString(ConfuzzionMain.crashSignature(e));
+            }
+            return status.name();
+        } finally {
+            statusScreen.newExecutions(1);
+            if (withJVM) {
+                try {
+                    Util.deleteDirectory(folder);
+                } catch(IOException e) {
+                    logger.error("Error while deleting directory {}", folder, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Revert a random number of mutations of the stack
+     */
+    private void revertMutations(Program prog, Stack<Mutation> mutationsStack, RandomGenerator rand, StatusScreen statusScreen) {
+        if (checkpoints != null) {
+            ArrayList<Mutation> dropped = new ArrayList<Mutation>(mutationsStack);
+            checkpoints.restore(mutationsStack, statusScreen);
+            // Mutations above the checkpoint are dropped without undo()
+            if (prog.getVerifier() != null) {
+                for (int i = mutationsStack.size(); i < dropped.size(); i++) {
+                    prog.getVerifier().forget(dropped.get(i));
+                }
+            }
+            return;
+        }
+        int toRevert = rand.nextUint(mutationsStack.size());
+        while(toRevert-- > 0) {
+            this.undoMutation(prog, mutationsStack.pop(), statusScreen);
+        }
+        // Refresh stack size on status screen
+        statusScreen.newStackSize(mutationsStack.size());
+    }
+
+    /**
+     * Apply a mutation and write the class files of the resulting program,
+     * assuming that the program being executed will succeed
+     * @param loop index of the main loop where the candidate will be executed
+     * @return the candidate or null if the mutation failed
+     */
+    private Candidate prepareCandidate(Program prog,
+            ArrayList<Contract> contracts,
+            BytecodeVerifier verifier,
+            StatusScreen statusScreen,
+            long loop) {
+        Mutation mutation = null;
+        try {
+            mutation = this.applyMutation(prog, statusScreen);
+        } catch (Throwable e) {
+            logger.error("Error while applying mutation", e);
+        }
+        if (mutation == null) {
+            return null;
+        }
+        verifier.prepare(mutation);
+        ArrayList<ContractCheck> contractsChecks = this.addContractsChecks(prog, contracts, mutation, statusScreen);
+        Candidate candidate = new Candidate(mutation, this.getFolder(loop, mutation));
+        try {
+            Files.createDirectories(candidate.folder);
+            candidate.classNames = prog.genClassFiles(candidate.folder.toString());
+            statusScreen.newPhaseTime(Phase.EMISSION, prog.getEmissionTime());
+        } catch (Throwable e) {
+            // Reported when the candidate is executed
+            candidate.error = e;
+        }
+        this.removeContractsChecks(prog, contractsChecks, mutation, statusScreen);
+        return candidate;
+    }
+
+    /**
+     * Revert a candidate that will not be executed
+     * @param candidate the candidate or null
+     * @return null
+     */
+    private Candidate discardCandidate(Program prog, Candidate candidate, StatusScreen statusScreen) {
+        if (candidate == null) {
+            return null;
+        }
+        this.undoMutation(prog, candidate.mutation, statusScreen);
+        try {
+            Util.deleteDirectory(candidate.folder);
+        } catch(IOException e) {
+            logger.error("Error while deleting directory {}", candidate.folder, e);
+        }
+        statusScreen.addCounter("discarded_candidates", 1);
+        return null;
+    }
+
+    ArrayList<ContractCheck> addContractsChecks(Program prog,
+            ArrayList<Contract> contracts,
+            Mutation mutation,
+            StatusScreen statusScreen) {
+        long startPhase = System.nanoTime();
+        Object event = Profiler.beginContracts();
+        ArrayList<ContractCheck> contractsChecks = prog.addContractsChecks(contracts, mutation);
+        Profiler.commitContracts(event, "add", mutation, contractsChecks.size());
+        statusScreen.newPhaseTime(Phase.INSTRUMENTATION, System.nanoTime() - startPhase);
+        return contractsChecks;
+    }
+
+    void removeContractsChecks(Program prog,
+            ArrayList<ContractCheck> contractsChecks,
+            Mutation mutation,
+            StatusScreen statusScreen) {
+        long startPhase = System.nanoTime();
+        Object event = Profiler.beginContracts();
+        prog.removeContractsChecks(contractsChecks);
+        Profiler.commitContracts(event, "remove", mutation, contractsChecks.size());
+        statusScreen.newPhaseTime(Phase.INSTRUMENTATION, System.nanoTime() - startPhase);
+        if (!contractsChecks.isEmpty() && contractsChecks.get(0).getContract() instanceof CompositeContract) {
+            CompositeContract composite = (CompositeContract)contractsChecks.get(0).getContract();
+            for (ValueContract contract : composite.getContracts()) {
+                if (contract instanceof ContractTypeConfusion) {
+                    ContractTypeConfusion typeConfusion = (ContractTypeConfusion)contract;
+                    statusScreen.setCounter("type_checks", typeConfusion.getChecks());
+                    statusScreen.setCounter("elided_type_checks", typeConfusion.getElidedChecks());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the contracts selected in ConfuzzionOptions to add to the
+     *         bodies, checked in a single traversal of each body. Type
+     *         confusion is left to the ContractAgent if it is enabled.
+     */
+    static ArrayList<Contract> newContracts() {
+        ArrayList<ValueContract> valueContracts = new ArrayList<ValueContract>();
+        for (ContractKind kind : ConfuzzionOptions.v().contracts) {
+            if (kind == ContractKind.TYPECONFUSION && ConfuzzionOptions.v().agent) {
+                continue;
+            }
+            valueContracts.add(kind.newContract());
+        }
+        ArrayList<Contract> contracts = new ArrayList<Contract>(1);
+        if (!valueContracts.isEmpty()) {
+            contracts.add(new CompositeContract(valueContracts));
+        }
+        return contracts;
+    }
+
+    void undoMutation(Program prog, Mutation mutation, StatusScreen statusScreen) {
+        long startPhase = System.nanoTime();
+        Object event = Profiler.beginMutation();
+        mutation.undo();
+        prog.updateWeights(mutation);
+        Profiler.commitMutation(event, "undo", mutation);
+        statusScreen.newPhaseTime(Phase.REVERT, System.nanoTime() - startPhase);
+    }
+
+    /**
+     * Count distinct crashes. With a separate JVM the signature is computed by
+     * the Worker, else from the exception thrown in the launcher thread.
+     * @param e the exception thrown by the execution
+     * @param crashSignatures signatures already seen
+     * @param statusScreen
+     */
+    static void newCrash(Throwable e, HashSet<Long> crashSignatures, StatusScreen statusScreen) {
+        Throwable cause = Util.getCause(e);
+        long signature = ConfuzzionMain.crashSignature(e);
+        if (crashSignatures.add(signature)) {
+            logger.info("New crash signature {}: {}", Long.toHexString(signature), cause.getMessage());
+            statusScreen.setCounter("unique_crashes", crashSignatures.size());
+        }
+    }
+
+    /**
+     * @param e the exception thrown by the execution
+     * @return signature of the exception, computed by the Worker with a
+     *         separate JVM
+     */
+    static long crashSignature(Throwable e) {
+        Throwable cause = Util.getCause(e);
+        if (cause instanceof WorkerException) {
+            return ((WorkerException)cause).getResult().getSignature();
+        }
+        return WorkerResult.signature(cause);
+    }
+
+    static void newInProcessExecution(InProcessExecutor executor, StatusScreen statusScreen) {
+        if (executor == null) {
+            return;
+        }
+        statusScreen.setCounter("leaked_threads", executor.getLeakedThreads());
+        LayeredClassLoaders layeredLoaders = executor.getLayeredLoaders();
+        if (layeredLoaders != null) {
+            statusScreen.setCounter("shared_classes", layeredLoaders.getNumberOfSharedClasses());
+            statusScreen.setCounter("full_reloads", layeredLoaders.getFullReloads());
+            statusScreen.setCounter("shared_loads", layeredLoaders.getSharedLoads());
+        }
+    }
+
+    /**
+     * Classify the exception thrown by an execution of the program
+     * @param e exception thrown by genAndLaunch or genAndLaunchWithJVM
+     * @return VIOLATES, REJECTED, INTERRUPTED or CRASHED
+     */
+    static Status executionStatus(Throwable e) {
+        Throwable cause = Util.getCause(e);
+        if (cause instanceof ContractCheckException) {
+            return Status.VIOLATES;
+        } else if (cause instanceof VerificationException) {
+            return Status.REJECTED;
+        } else if (cause instanceof InterruptedException || cause instanceof Deadline.Exceeded) {
+            return Status.INTERRUPTED;
+        }
+        return Status.CRASHED;
+    }
 }
@@ -1,5 +1,8 @@
 package confuzzion;
 
+import java.util.Collections;
+import java.util.List;
+
 public class ConfuzzionOptions {
     private static final ConfuzzionOptions instance = new ConfuzzionOptions();
 
@@ -10,6 +13,23 @@ public class ConfuzzionOptions {
     public volatile boolean fixed_number_of_classes;
     public volatile boolean use_uniform_distribution_for_methods;
     public volatile boolean quiet;
+    public volatile int metrics_port;
+    public volatile boolean json_stats;
+    public volatile boolean jfr;
+    public volatile VerificationPolicy verification_policy;
+    public volatile boolean use_shared_archive;
+    public volatile boolean pipeline;
+    public volatile boolean adaptive_timeout;
+    public volatile boolean virtual_threads;
+    public volatile boolean layered_loaders;
+    public volatile boolean havoc;
+    public volatile boolean constants_table;
+    public volatile boolean type_flow_analysis;
+    public volatile List<ContractKind> contracts;
+    public volatile boolean agent;
+    public volatile long compaction_period;
+    public volatile boolean cost_aware;
+    public volatile boolean checkpoints;
 
     private ConfuzzionOptions() {
         allow_unsafe_assignment = false;
@@ -19,6 +39,23 @@ public class ConfuzzionOptions {
         fixed_number_of_classes = true;
         use_uniform_distribution_for_methods = false;
         quiet = false;
+        metrics_port = -1;
+        json_stats = false;
+        jfr = false;
+        verification_policy = VerificationPolicy.OFF;
+        use_shared_archive = true;
+        pipeline = false;
+        adaptive_timeout = false;
+        virtual_threads = false;
+        layered_loaders = false;
+        havoc = false;
+        constants_table = true;
+        type_flow_analysis = false;
+        contracts = Collections.singletonList(ContractKind.TYPECONFUSION);
+        agent = false;
+        compaction_period = 0;
+        cost_aware = false;
+        checkpoints = false;
     }
 
     public static ConfuzzionOptions v() {
@@ -0,0 +1,271 @@
+package confuzzion;
+
+import soot.FoundFile;
+import soot.SootClass;
+import soot.SootField;
+import soot.SootMethod;
+import soot.SourceLocator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Constants mined once from the target classes: numbers and string literals
+ * of their bytecode (ldc, bipush, sipush and constant fields), with the
+ * values around each number, the usual boundary values of each type, the
+ * names of their fields and methods and the class names. Values are stored
+ * in arrays to be sampled without allocation.
+ */
+public class ConstantDictionary {
+    private int[] ints;
+    private long[] longs;
+    private float[] floats;
+    private double[] doubles;
+    private String[] literals;
+    private String[] memberNames;
+    private String[] classNames;
+
+    private static final Logger logger = LoggerFactory.getLogger(ConstantDictionary.class);
+
+    /**
+     * Build the dictionary of target classes
+     * @param targetClasses names of the classes, loaded in Soot
+     */
+    public ConstantDictionary(List<String> targetClasses) {
+        Collector collector = new Collector();
+        collector.addBoundaries();
+        for (String className : targetClasses) {
+            SootClass sClass = Util.getOrLoadSootClass(className);
+            collector.classNames.add(sClass.getName());
+            collector.classNames.add(sClass.getShortName());
+            for (SootField field : sClass.getFields()) {
+                collector.memberNames.add(field.getName());
+            }
+            for (SootMethod method : sClass.getMethods()) {
+                if (!method.getName().startsWith("<")) {
+                    collector.memberNames.add(method.getName());
+                }
+            }
+            byte[] bytecode = ConstantDictionary.readClass(className);
+            if (bytecode == null) {
+                logger.warn("Class file of {} not found, no constant mined", className);
+                continue;
+            }
+            try {
+                new ClassReader(bytecode).accept(collector, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+            } catch (RuntimeException e) {
+                logger.warn("Cannot read constants of {}", className, e);
+            }
+        }
+
+        ints = new int[collector.ints.size()];
+        int i = 0;
+        for (int value : collector.ints) {
+            ints[i++] = value;
+        }
+        longs = new long[collector.longs.size()];
+        i = 0;
+        for (long value : collector.longs) {
+            longs[i++] = value;
+        }
+        floats = new float[collector.floats.size()];
+        i = 0;
+        for (float value : collector.floats) {
+            floats[i++] = value;
+        }
+        doubles = new double[collector.doubles.size()];
+        i = 0;
+        for (double value : collector.doubles) {
+            doubles[i++] = value;
+        }
+        literals = collector.literals.toArray(new String[0]);
+        memberNames = collector.memberNames.toArray(new String[0]);
+        classNames = collector.classNames.toArray(new String[0]);
+        logger.info("Constant dictionary: {} ints, {} longs, {} floats, {} doubles, {} strings, {} names",
+            ints.length, longs.length, floats.length, doubles.length,
+            literals.length, memberNames.length + classNames.length);
+    }
+
+    public int randInt(RandomGenerator rand) {
+        return ints[rand.nextUint(ints.length)];
+    }
+
+    public long randLong(RandomGenerator rand) {
+        return longs[rand.nextUint(longs.length)];
+    }
+
+    public float randFloat(RandomGenerator rand) {
+        return floats[rand.nextUint(floats.length)];
+    }
+
+    public double randDouble(RandomGenerator rand) {
+        return doubles[rand.nextUint(doubles.length)];
+    }
+
+    /**
+     * @return a string literal, or null if the classes have none
+     */
+    public String randLiteral(RandomGenerator rand) {
+        if (literals.length == 0) {
+            return null;
+        }
+        return literals[rand.nextUint(literals.length)];
+    }
+
+    /**
+     * @return a name of field or method, or null if the classes have none
+     */
+    public String randMemberName(RandomGenerator rand) {
+        if (memberNames.length == 0) {
+            return null;
+        }
+        return memberNames[rand.nextUint(memberNames.length)];
+    }
+
+    /**
+     * @return a full or short name of class
+     */
+    public String randClassName(RandomGenerator rand) {
+        return classNames[rand.nextUint(classNames.length)];
+    }
+
+    /**
+     * @return the class file of a class in the Soot class path, or null
+     */
+    private static byte[] readClass(String className) {
+        FoundFile file = SourceLocator.v().lookupInClassPath(className.replace('.', '/') + ".class");
+        if (file == null) {
+            return null;
+        }
+        try (InputStream stream = file.inputStream()) {
+            return ConstantDictionary.readAll(stream);
+        } catch (IOException e) {
+            logger.warn("Cannot read class file of {}", className, e);
+            return null;
+        } finally {
+            file.close();
+        }
+    }
+
+    private static byte[] readAll(InputStream stream) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = stream.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Collect the constants of the visited classes, without duplicates
+     */
+    private static class Collector extends ClassVisitor {
+        private LinkedHashSet<Integer> ints;
+        private LinkedHashSet<Long> longs;
+        private LinkedHashSet<Float> floats;
+        private LinkedHashSet<Double> doubles;
+        private LinkedHashSet<String> literals;
+        private LinkedHashSet<String> memberNames;
+        private LinkedHashSet<String> classNames;
+
+        public Collector() {
+            super(Opcodes.ASM7);
+            ints = new LinkedHashSet<Integer>();
+            longs = new LinkedHashSet<Long>();
+            floats = new LinkedHashSet<Float>();
+            doubles = new LinkedHashSet<Double>();
+            literals = new LinkedHashSet<String>();
+            memberNames = new LinkedHashSet<String>();
+            classNames = new LinkedHashSet<String>();
+        }
+
+        public void addBoundaries() {
+            for (int value : new int[] {0, 1, -1, 2,
+                    Byte.MIN_VALUE, Byte.MAX_VALUE, Short.MIN_VALUE, Short.MAX_VALUE,
+                    Character.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE}) {
+                this.addInt(value);
+            }
+            for (long value : new long[] {0, 1, -1, 2, Long.MIN_VALUE, Long.MAX_VALUE}) {
+                this.addLong(value);
+            }
+            for (float value : new float[] {0.0f, 1.0f, -1.0f, -0.0f,
+                    Float.MIN_VALUE, Float.MAX_VALUE, Float.NaN,
+                    Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY}) {
+                floats.add(value);
+            }
+            for (double value : new double[] {0.0, 1.0, -1.0, -0.0,
+                    Double.MIN_VALUE, Double.MAX_VALUE, Double.NaN,
+                    Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY}) {
+                doubles.add(value);
+            }
+        }
+
+        /**
+         * Add a number and its neighbours, to reach both sides of a bound
+         */
+        private void addInt(int value) {
+            ints.add(value - 1);
+            ints.add(value);
+            ints.add(value + 1);
+            longs.add((long)value);
+        }
+
+        private void addLong(long value) {
+            longs.add(value - 1);
+            longs.add(value);
+            longs.add(value + 1);
+        }
+
+        private void addConstant(Object value) {
+            if (value instanceof Integer) {
+                this.addInt((Integer)value);
+            } else if (value instanceof Long) {
+                this.addLong((Long)value);
+            } else if (value instanceof Float) {
+                floats.add((Float)value);
+                doubles.add((double)(Float)value);
+            } else if (value instanceof Double) {
+                doubles.add((Double)value);
+            } else if (value instanceof String) {
+                literals.add((String)value);
+            }
+        }
+
+        @Override
+        public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+            if (value != null) {
+                this.addConstant(value);
+            }
+            return null;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+            return new MethodVisitor(Opcodes.ASM7) {
+                @Override
+                public void visitIntInsn(int opcode, int operand) {
+                    if (opcode == Opcodes.BIPUSH || opcode == Opcodes.SIPUSH) {
+                        Collector.this.addInt(operand);
+                    }
+                }
+
+                @Override
+                public void visitLdcInsn(Object value) {
+                    Collector.this.addConstant(value);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package confuzzion;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Constants of the program executed by the Worker. Generated code loads the
+ * constants added by the last mutation from the current row, so the same
+ * class files are executed with each row of the table.
+ * Values are stored as longs: int values as is, float and double values as
+ * their raw bits.
+ * This class is part of the runtime: it must not depend on Soot or any
+ * library.
+ */
+public class ConstantsTable {
+    private static volatile long[] row = new long[0];
+
+    /**
+     * Select the constants of the next execution
+     * @param values a row of the table
+     */
+    public static void setRow(long[] values) {
+        row = values;
+    }
+
+    /**
+     * Called by generated code for boolean, byte, char, short and int
+     * constants
+     */
+    public static int getInt(int index) {
+        return (int)row[index];
+    }
+
+    /**
+     * Called by generated code for long constants
+     */
+    public static long getLong(int index) {
+        return row[index];
+    }
+
+    /**
+     * Called by generated code for float constants
+     */
+    public static float getFloat(int index) {
+        return Float.intBitsToFloat((int)row[index]);
+    }
+
+    /**
+     * Called by generated code for double constants
+     */
+    public static double getDouble(int index) {
+        return Double.longBitsToDouble(row[index]);
+    }
+
+    /**
+     * Write a table
+     * @param rows rows of the same length
+     * @param stream output
+     * @throws IOException
+     */
+    public static void write(long[][] rows, OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(rows.length);
+        out.writeInt(rows.length == 0 ? 0 : rows[0].length);
+        for (long[] values : rows) {
+            for (long value : values) {
+                out.writeLong(value);
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Read a table written by write()
+     * @param stream input
+     * @return rows of the table
+     * @throws IOException
+     */
+    public static long[][] read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        int numberOfRows = in.readInt();
+        int numberOfColumns = in.readInt();
+        long[][] rows = new long[numberOfRows][numberOfColumns];
+        for (long[] values : rows) {
+            for (int i = 0; i < numberOfColumns; i++) {
+                values[i] = in.readLong();
+            }
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,177 @@
+package confuzzion;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.security.ProtectionDomain;
+import java.util.HashSet;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * Java agent checking type confusion in the JVM of the Worker, instead of
+ * the checks added to the bodies by ContractTypeConfusion. The classes of the
+ * program, given as agent arguments, are instrumented when they are defined:
+ * reference values are checked with ContractRuntime.checkType() against the
+ * type of their descriptor when they are loaded from or stored to a field,
+ * returned by a method or received as parameters.
+ * The agent is started from the agent jar (classifier "agent"), which holds
+ * only this class and a relocated ASM, so that the class path of the Worker
+ * does not get Soot or the classes of the fuzzer.
+ */
+public class ContractAgent implements ClassFileTransformer {
+    private HashSet<String> classNames;
+
+    private static final String RUNTIME = "confuzzion/ContractRuntime";
+    private static final String CHECK_TYPE = "checkType";
+    private static final String CHECK_TYPE_DESC = "(Ljava/lang/Object;Ljava/lang/Class;)V";
+
+    /**
+     * Instrument the classes of a program
+     * @param args names of the classes of the program separated by commas
+     */
+    public ContractAgent(String args) {
+        this.classNames = new HashSet<String>();
+        if (args != null) {
+            for (String className : args.split(",")) {
+                if (!className.isEmpty()) {
+                    classNames.add(className.replace('.', '/'));
+                }
+            }
+        }
+    }
+
+    public static void premain(String args, Instrumentation inst) {
+        inst.addTransformer(new ContractAgent(args));
+    }
+
+    @Override
+    public byte[] transform(ClassLoader loader,
+            String className,
+            Class<?> classBeingRedefined,
+            ProtectionDomain protectionDomain,
+            byte[] classfileBuffer) {
+        if (className == null || !classNames.contains(className)) {
+            return null;
+        }
+        try {
+            ClassReader reader = new ClassReader(classfileBuffer);
+            ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+            reader.accept(new CheckClassVisitor(writer), 0);
+            return writer.toByteArray();
+        } catch (RuntimeException e) {
+            // The class is executed without checks
+            System.err.println("ContractAgent: cannot instrument " + className);
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * @return true if values of this descriptor are checked
+     */
+    private static boolean isChecked(Type type) {
+        return type.getSort() == Type.OBJECT && !type.getInternalName().equals("java/lang/Object");
+    }
+
+    private static class CheckClassVisitor extends ClassVisitor {
+        public CheckClassVisitor(ClassVisitor cv) {
+            super(Opcodes.ASM7, cv);
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+            // ldc of a class needs version 49, without stack map frames
+            if ((version & 0xFFFF) < Opcodes.V1_5) {
+                version = Opcodes.V1_5;
+            }
+            super.visit(version, access, name, signature, superName, interfaces);
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+            MethodVisitor mv = super.visitMethod(access, name, descriptor, signature, exceptions);
+            if (mv == null || (access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE)) != 0) {
+                return mv;
+            }
+            return new CheckMethodVisitor(mv, access, descriptor);
+        }
+    }
+
+    private static class CheckMethodVisitor extends MethodVisitor {
+        private int access;
+        private String descriptor;
+
+        public CheckMethodVisitor(MethodVisitor mv, int access, String descriptor) {
+            super(Opcodes.ASM7, mv);
+            this.access = access;
+            this.descriptor = descriptor;
+        }
+
+        @Override
+        public void visitCode() {
+            super.visitCode();
+            int slot = (access & Opcodes.ACC_STATIC) != 0 ? 0 : 1;
+            for (Type argument : Type.getArgumentTypes(descriptor)) {
+                if (ContractAgent.isChecked(argument)) {
+                    super.visitVarInsn(Opcodes.ALOAD, slot);
+                    this.check(argument);
+                }
+                slot += argument.getSize();
+            }
+        }
+
+        @Override
+        public void visitFieldInsn(int opcode, String owner, String name, String fieldDescriptor) {
+            Type type = Type.getType(fieldDescriptor);
+            boolean checked = ContractAgent.isChecked(type);
+            if (checked && (opcode == Opcodes.PUTFIELD || opcode == Opcodes.PUTSTATIC)) {
+                this.checkTop(type);
+            }
+            super.visitFieldInsn(opcode, owner, name, fieldDescriptor);
+            if (checked && (opcode == Opcodes.GETFIELD || opcode == Opcodes.GETSTATIC)) {
+                this.checkTop(type);
+            }
+        }
+
+        @Override
+        public void visitMethodInsn(int opcode, String owner, String name, String methodDescriptor, boolean isInterface) {
+            super.visitMethodInsn(opcode, owner, name, methodDescriptor, isInterface);
+            Type type = Type.getReturnType(methodDescriptor);
+            if (ContractAgent.isChecked(type)) {
+                this.checkTop(type);
+            }
+        }
+
+        @Override
+        public void visitInsn(int opcode) {
+            if (opcode == Opcodes.ARETURN) {
+                Type type = Type.getReturnType(descriptor);
+                if (ContractAgent.isChecked(type)) {
+                    this.checkTop(type);
+                }
+            }
+            super.visitInsn(opcode);
+        }
+
+        /**
+         * Check the value on top of the stack without removing it
+         */
+        private void checkTop(Type type) {
+            super.visitInsn(Opcodes.DUP);
+            this.check(type);
+        }
+
+        /**
+         * Check and remove the value on top of the stack
+         */
+        private void check(Type type) {
+            super.visitLdcInsn(type);
+            super.visitMethodInsn(Opcodes.INVOKESTATIC, RUNTIME, CHECK_TYPE, CHECK_TYPE_DESC, false);
+        }
+    }
+}
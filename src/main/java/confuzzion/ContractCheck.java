@@ -0,0 +1,26 @@
+package confuzzion;
+
+import soot.SootMethod;
+
+/**
+ * A contract to check in a method. The checks are added to a copy of the
+ * body of the method when the program is emitted: the body itself is never
+ * changed by the instrumentation.
+ */
+public class ContractCheck {
+    private Contract contract;
+    private SootMethod method;
+
+    public ContractCheck(Contract contract, SootMethod method) {
+        this.contract = contract;
+        this.method = method;
+    }
+
+    public Contract getContract() {
+        return contract;
+    }
+
+    public SootMethod getMethod() {
+        return method;
+    }
+}
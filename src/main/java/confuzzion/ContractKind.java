@@ -0,0 +1,18 @@
+package confuzzion;
+
+public enum ContractKind {
+    TYPECONFUSION, /* Dynamic types of references match their static types. */
+    EQUALS; /* Each non-null reference is equal to itself. */
+
+    /**
+     * @return a new instance of the contract
+     */
+    public ValueContract newContract() {
+        switch (this) {
+        case EQUALS:
+            return new EqualsContract();
+        default:
+            return new ContractTypeConfusion();
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package confuzzion;
+
+/**
+ * Checks called by the code added by contracts. One call replaces a block of
+ * instructions inlined at each check.
+ * This class is part of the runtime: it must not depend on Soot or any
+ * library.
+ */
+public class ContractRuntime {
+    /**
+     * Check the dynamic type of a value against its static type
+     * @param value    a local or field value
+     * @param expected the static type of value
+     * @throws ContractCheckException if value is not null and not an instance
+     *         of expected
+     */
+    public static void checkType(Object value, Class<?> expected) throws ContractCheckException {
+        if (value != null && !expected.isInstance(value)) {
+            throw new ContractCheckException();
+        }
+    }
+}
@@ -1,107 +1,117 @@
 package confuzzion;
 
 import soot.Body;
-import soot.BooleanType;
 import soot.Local;
 import soot.RefType;
-import soot.SootClass;
 import soot.SootField;
 import soot.SootMethod;
-import soot.Type;
 import soot.Unit;
-import soot.Value;
-import soot.jimple.IntConstant;
+import soot.jimple.ClassConstant;
 import soot.jimple.Jimple;
-import soot.jimple.NullConstant;
 
-import java.util.ArrayList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-public class ContractTypeConfusion implements Contract {
-    public ContractTypeConfusion() {
+/**
+ * Check that the dynamic type of each reference local and field of a body is
+ * compatible with its static type, with a call to ContractRuntime.checkType()
+ * for each value. When ConfuzzionOptions.type_flow_analysis is enabled,
+ * locals proven safe by TypeConfusionAnalysis are not checked.
+ */
+public class ContractTypeConfusion implements ValueContract {
+    private long checks;
+    private long elidedChecks;
+
+    private static final Logger logger = LoggerFactory.getLogger(ContractTypeConfusion.class);
 
+    public ContractTypeConfusion() {
+        checks = 0;
+        elidedChecks = 0;
     }
 
     @Override
     public BodyMutation applyCheck(Body body) {
-        BodyMutation mutation = new BodyMutation(body);
-        SootClass exception = Util.getOrLoadSootClass("confuzzion.ContractCheckException");
-        SootMethod mExceptionInit = exception.getMethodByName("<init>");
-        int a = 0;
-        ArrayList<Local> newLocals = new ArrayList<Local>(10);
-        ArrayList<Value> values = new ArrayList<Value>(10);
-
-        for (Local local : body.getLocals()) {
-            if (local.getType() instanceof RefType) {
-                values.add(local);
+        return new CompositeContract(this).applyCheck(body);
+    }
+
+    @Override
+    public ValueChecks newChecks(Body body, BodyMutation mutation) {
+        return new TypeChecks(body, mutation);
+    }
+
+    private class TypeChecks implements ValueChecks {
+        private Body body;
+        private BodyMutation mutation;
+        private SootMethod mCheckType;
+        private TypeConfusionAnalysis analysis;
+        private Unit uLast;
+        private int bodyChecks;
+        private int bodyElidedChecks;
+
+        public TypeChecks(Body body, BodyMutation mutation) {
+            this.body = body;
+            this.mutation = mutation;
+            this.mCheckType = Util.getOrLoadSootClass("confuzzion.ContractRuntime").getMethodByName("checkType");
+            this.analysis = null;
+            if (ConfuzzionOptions.v().type_flow_analysis) {
+                this.analysis = new TypeConfusionAnalysis(body);
             }
+            this.uLast = body.getUnits().getLast();
+            this.bodyChecks = 0;
+            this.bodyElidedChecks = 0;
         }
 
-        if (!body.getMethod().isStatic()) {
-            // Check also all fields
-            Local thisLocal = body.getThisLocal();
-            for (SootField field : body.getMethod().getDeclaringClass().getFields()) {
-                if (field.getType() instanceof RefType) {
-                    Local local = Jimple.v().newLocal("contracttc" + a++, field.getType());
-                    if (field.isStatic()) {
-                        mutation.addUnit(
-                                Jimple.v().newAssignStmt(local,
-                                        Jimple.v().newStaticFieldRef(field.makeRef())));
-                    } else {
-                        mutation.addUnit(
-                                Jimple.v().newAssignStmt(local,
-                                        Jimple.v().newInstanceFieldRef(thisLocal, field.makeRef())));
-                    }
-                    newLocals.add(local);
-                    values.add(local);
-                }
+        @Override
+        public void checkLocal(Local local) {
+            if (analysis != null && !analysis.isTainted(local, uLast)) {
+                bodyElidedChecks++;
+                return;
             }
+            mutation.addUnit(this.newCheck(local, (RefType)local.getType()));
+            bodyChecks++;
         }
 
-        for (Value value : values) {
-            Type type = value.getType();
-
-            Unit uNop = Jimple.v().newNopStmt();
-            // Check that local is not null, else abort contract checking
-            mutation.addUnit(
-                    Jimple.v().newIfStmt(
-                            Jimple.v().newEqExpr(value, NullConstant.v()),
-                            uNop));
-
-            // Use instanceof instruction to check dynamic type vs expected type
-            Local locBoolResult = Jimple.v().newLocal("contracttc" + a++, BooleanType.v());
-            newLocals.add(locBoolResult);
-            mutation.addUnit(
-                    Jimple.v().newAssignStmt(locBoolResult,
-                            Jimple.v().newInstanceOfExpr(value, type)));
-
-            // if instanceof returns 1 then jump at the end
-            // else throw Exception
-            mutation.addUnit(
-                    Jimple.v().newIfStmt(
-                            Jimple.v().newNeExpr(locBoolResult, IntConstant.v(0)),
-                            uNop));
-            Local locException =
-                    Jimple.v().newLocal("contracttc" + a++, exception.getType());
-            newLocals.add(locException);
-            mutation.addUnit(
-                    Jimple.v().newAssignStmt(locException,
-                            Jimple.v().newNewExpr(exception.getType())));
-            // Call locException constructor
-            mutation.addUnit(
-                    Jimple.v().newInvokeStmt(
-                            Jimple.v().newSpecialInvokeExpr(locException,
-                                    mExceptionInit.makeRef())));
-            // Add throw statement
-            Unit uThrow = Jimple.v().newThrowStmt(locException);
-            mutation.addUnit(uThrow);
-            mutation.addUnit(uNop);
+        @Override
+        public void checkField(SootField field, Local value) {
+            mutation.addUnit(this.newCheck(value, (RefType)field.getType()));
+            bodyChecks++;
         }
 
-        // Add new locals to chain
-        for (Local newLocal : newLocals) {
-            mutation.addLocal(newLocal);
+        @Override
+        public boolean checksFields() {
+            return true;
         }
 
-        return mutation;
+        @Override
+        public void finish() {
+            logger.debug("{}: {} type checks, {} elided", body.getMethod().getSignature(), bodyChecks, bodyElidedChecks);
+            ContractTypeConfusion.this.addBodyChecks(bodyChecks, bodyElidedChecks);
+        }
+
+        private Unit newCheck(Local value, RefType type) {
+            return Jimple.v().newInvokeStmt(
+                    Jimple.v().newStaticInvokeExpr(mCheckType.makeRef(),
+                            value,
+                            ClassConstant.fromType(type)));
+        }
+    }
+
+    private synchronized void addBodyChecks(int bodyChecks, int bodyElidedChecks) {
+        checks += bodyChecks;
+        elidedChecks += bodyElidedChecks;
+    }
+
+    /**
+     * @return number of type checks added since the creation of the contract
+     */
+    public synchronized long getChecks() {
+        return checks;
+    }
+
+    /**
+     * @return number of type checks skipped because the local is proven safe
+     */
+    public synchronized long getElidedChecks() {
+        return elidedChecks;
     }
 }
@@ -0,0 +1,73 @@
+package confuzzion;
+
+/**
+ * Deadline of a program executed inside the fuzzer JVM. Generated bodies
+ * call check() at method entries and loop heads, so a program that runs too
+ * long stops itself by throwing Deadline.Exceeded.
+ * Each execution has its own deadline, attached to the thread running it and
+ * inherited by the threads it starts: a thread left running after a timeout
+ * keeps its expired deadline whatever the next executions do.
+ * This class is part of the runtime: it must not depend on Soot or any
+ * library.
+ */
+public class Deadline {
+    private volatile long deadline;
+
+    private static final InheritableThreadLocal<Deadline> current = new InheritableThreadLocal<Deadline>();
+
+    /**
+     * Thrown by check() when the deadline is reached
+     */
+    public static class Exceeded extends Error {
+        /**
+         * Generated serialVersionUID
+         */
+        private static final long serialVersionUID = 5209472351872361046L;
+
+        public Exceeded() {
+            // No stack trace: thrown frequently and never reported
+            super("Deadline exceeded", null, false, false);
+        }
+    }
+
+    /**
+     * Constructor
+     * @param timeoutMiliseconds delay from now
+     */
+    public Deadline(long timeoutMiliseconds) {
+        this.deadline = System.nanoTime() + timeoutMiliseconds * 1000000L;
+    }
+
+    /**
+     * Expire the deadline immediately
+     */
+    public void expire() {
+        deadline = Long.MIN_VALUE;
+    }
+
+    /**
+     * Make this deadline the one of the current thread and of the threads it
+     * starts
+     */
+    public void enter() {
+        current.set(this);
+    }
+
+    /**
+     * Remove the deadline of the current thread, before it is reused
+     */
+    public static void leave() {
+        current.remove();
+    }
+
+    /**
+     * Called by generated code
+     * @throws Exceeded if the deadline of the thread is reached
+     */
+    public static void check() {
+        Deadline deadline = current.get();
+        if (deadline != null && System.nanoTime() > deadline.deadline) {
+            throw new Exceeded();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package confuzzion;
+
+import soot.Body;
+import soot.SootMethod;
+import soot.Unit;
+import soot.UnitBox;
+import soot.jimple.IdentityStmt;
+import soot.jimple.Jimple;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Add calls to Deadline.check() at the entry and at each loop head of a
+ * body, for programs executed inside the fuzzer JVM
+ */
+public class DeadlineCheck {
+    private SootMethod mCheck;
+
+    public DeadlineCheck() {
+        mCheck = Util.getOrLoadSootClass("confuzzion.Deadline").getMethodByName("check");
+    }
+
+    /**
+     * Add deadline checks inside body
+     * @param  body the body to instrument
+     * @return      A BodyMutation corresponding to the added checks
+     */
+    public BodyMutation applyCheck(Body body) {
+        BodyMutation mutation = new BodyMutation(body);
+
+        // Targets of backward jumps are loop heads
+        HashMap<Unit, Integer> positions = new HashMap<Unit, Integer>();
+        int position = 0;
+        for (Unit unit : body.getUnits()) {
+            positions.put(unit, position++);
+        }
+        HashSet<Unit> loopHeads = new HashSet<Unit>();
+        for (Unit unit : body.getUnits()) {
+            for (UnitBox box : unit.getUnitBoxes()) {
+                Unit target = box.getUnit();
+                if (positions.get(target) <= positions.get(unit) &&
+                        !(target instanceof IdentityStmt)) {
+                    loopHeads.add(target);
+                }
+            }
+        }
+
+        Unit entry = body.getUnits().getFirst();
+        while (entry instanceof IdentityStmt) {
+            entry = body.getUnits().getSuccOf(entry);
+        }
+        mutation.addUnitBefore(this.newCheck(), entry);
+        // Redirect jumps to the check to run it at each iteration
+        for (Unit loopHead : new ArrayList<Unit>(loopHeads)) {
+            mutation.addUnitBeforeRedirect(this.newCheck(), loopHead);
+        }
+
+        return mutation;
+    }
+
+    private Unit newCheck() {
+        return Jimple.v().newInvokeStmt(Jimple.v().newStaticInvokeExpr(mCheck.makeRef()));
+    }
+}
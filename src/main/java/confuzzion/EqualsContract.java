@@ -2,40 +2,49 @@ package confuzzion;
 
 import soot.Body;
 import soot.Local;
-import soot.RefType;
 import soot.Scene;
 import soot.SootClass;
+import soot.SootField;
 import soot.SootMethod;
-import soot.Type;
 import soot.Unit;
 import soot.Value;
 import soot.jimple.Jimple;
 import soot.jimple.NullConstant;
 
-import java.util.ArrayList;
-
-public class EqualsContract implements Contract {
+public class EqualsContract implements ValueContract {
     public EqualsContract() {
 
     }
 
     @Override
     public BodyMutation applyCheck(Body body) {
-        BodyMutation mutation = new BodyMutation(body);
-        SootClass exception = Scene.v().getSootClass(
-            "confuzzion.ContractCheckException");
-        SootMethod mExceptionInit = exception.getMethodByName("<init>");
-        SootClass clazz = Scene.v().getSootClass("java.lang.Object");
-        SootMethod mEquals = clazz.getMethodByName("equals");
-        int a = 0;
-        ArrayList<Local> newLocals = new ArrayList<Local>();
+        return new CompositeContract(this).applyCheck(body);
+    }
+
+    @Override
+    public ValueChecks newChecks(Body body, BodyMutation mutation) {
+        return new EqualsChecks(mutation);
+    }
+
+    private class EqualsChecks implements ValueChecks {
+        private BodyMutation mutation;
+        private SootClass exception;
+        private SootMethod mExceptionInit;
+        private SootMethod mEquals;
+        private int a;
 
-        for (Local local : body.getLocals()) {
-            Type type = local.getType();
-            if (!(type instanceof RefType)) {
-                continue;
-            }
+        public EqualsChecks(BodyMutation mutation) {
+            this.mutation = mutation;
+            this.exception = Scene.v().getSootClass(
+                "confuzzion.ContractCheckException");
+            this.mExceptionInit = exception.getMethodByName("<init>");
+            SootClass clazz = Scene.v().getSootClass("java.lang.Object");
+            this.mEquals = clazz.getMethodByName("equals");
+            this.a = 0;
+        }
 
+        @Override
+        public void checkLocal(Local local) {
             Unit uNop = Jimple.v().newNopStmt();
             // Check that local is not null, else abort contract checking
             mutation.addUnit(
@@ -50,7 +59,7 @@ public class EqualsContract implements Contract {
                                                 local);
             Local locBoolResult =
                 Jimple.v().newLocal("contracteq" + a++, soot.BooleanType.v());
-            newLocals.add(locBoolResult);
+            mutation.addLocal(locBoolResult);
             mutation.addUnit(
                 Jimple.v().newAssignStmt(locBoolResult, vEquals));
 
@@ -63,7 +72,7 @@ public class EqualsContract implements Contract {
                     uNop));
             Local locException =
                 Jimple.v().newLocal("contracteq" + a++, exception.getType());
-            newLocals.add(locException);
+            mutation.addLocal(locException);
             mutation.addUnit(
                 Jimple.v().newAssignStmt(locException,
                                          Jimple.v().newNewExpr(
@@ -79,11 +88,19 @@ public class EqualsContract implements Contract {
             mutation.addUnit(uNop);
         }
 
-        // Add new locals to chain
-        for (Local newLocal : newLocals) {
-            mutation.addLocal(newLocal);
+        @Override
+        public void checkField(SootField field, Local value) {
+
+        }
+
+        @Override
+        public boolean checksFields() {
+            return false;
         }
 
-        return mutation;
+        @Override
+        public void finish() {
+
+        }
     }
 }
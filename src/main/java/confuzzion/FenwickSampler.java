@@ -0,0 +1,116 @@
+package confuzzion;
+
+import java.util.Arrays;
+
+/**
+ * Weights of dense ids kept in a Fenwick tree, so changing a weight and
+ * drawing an id with a probability proportional to its weight are O(log n)
+ * and do not allocate.
+ */
+public class FenwickSampler {
+    private double[] weights;
+    // 1-based: node i holds the sum of the weights of ids (i - lowbit(i), i]
+    private double[] tree;
+    private int size;
+    private int updates;
+
+    // Rebuild the tree after this number of updates to drop rounding errors
+    private static final int REBUILD_PERIOD = 1 << 16;
+
+    public FenwickSampler() {
+        weights = new double[16];
+        tree = new double[17];
+        size = 0;
+        updates = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public double get(int id) {
+        return weights[id];
+    }
+
+    /**
+     * Add an id at the end
+     * @param weight positive weight of the id
+     */
+    public void add(double weight) {
+        if (size == weights.length) {
+            weights = Arrays.copyOf(weights, size * 2);
+            tree = Arrays.copyOf(tree, size * 2 + 1);
+        }
+        weights[size] = weight;
+        int node = size + 1;
+        tree[node] = weight + this.prefix(node - 1) - this.prefix(node - (node & -node));
+        size++;
+    }
+
+    /**
+     * Change the weight of an id
+     */
+    public void set(int id, double weight) {
+        double delta = weight - weights[id];
+        weights[id] = weight;
+        for (int node = id + 1; node <= size; node += node & -node) {
+            tree[node] += delta;
+        }
+        if (++updates >= REBUILD_PERIOD) {
+            this.rebuild();
+        }
+    }
+
+    /**
+     * Remove the last id
+     */
+    public void removeLast() {
+        size--;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Draw an id with a probability proportional to its weight
+     * @return the id or -1 if there is no id
+     */
+    public int sample(RandomGenerator rand) {
+        if (size == 0) {
+            return -1;
+        }
+        double total = this.prefix(size);
+        if (!(total > 0.0)) {
+            return rand.nextUint(size);
+        }
+        double target = rand.nextDouble() * total;
+        // Largest position whose prefix sum does not exceed the target
+        int position = 0;
+        for (int step = Integer.highestOneBit(size); step > 0; step >>= 1) {
+            int node = position + step;
+            if (node <= size && tree[node] <= target) {
+                position = node;
+                target -= tree[node];
+            }
+        }
+        return Math.min(position, size - 1);
+    }
+
+    private double prefix(int node) {
+        double sum = 0.0;
+        for (; node > 0; node -= node & -node) {
+            sum += tree[node];
+        }
+        return sum;
+    }
+
+    private void rebuild() {
+        int count = size;
+        size = 0;
+        for (int id = 0; id < count; id++) {
+            this.add(weights[id]);
+        }
+        updates = 0;
+    }
+}
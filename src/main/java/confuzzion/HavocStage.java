@@ -0,0 +1,291 @@
+package confuzzion;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Stack;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Havoc stage: several mutations are applied before each execution to
+ * amortize its cost. When the execution fails, the first failing mutation is
+ * found by bisection over the prefixes of the batch, with undo and redo. It
+ * is reverted with the mutations applied after it, which may depend on it.
+ * When the execution violates a contract, the whole batch is saved. A
+ * violation found during the bisection is saved and reported the same way,
+ * with the prefix of the batch that violates the contract.
+ * Mutations reverted without being the culprit are not executed and are left
+ * out of the statistics of the mutations.
+ * The size of the batch doubles after a success and is halved after a
+ * failure, not after a violation.
+ */
+public class HavocStage {
+    private ConfuzzionMain main;
+    private Program prog;
+    private ArrayList<Contract> contracts;
+    private BytecodeVerifier verifier;
+    private StatusScreen statusScreen;
+    private HashSet<Long> crashSignatures;
+    private TimeoutEstimator timeoutEstimator;
+    private Checkpoints checkpoints;
+    private boolean withJVM;
+    private String javahome;
+    private long timeout;
+    private long startTime;
+    private int size;
+    private ArrayList<Mutation> batch;
+    private int applied;
+    private int stackedMutations;
+    private long executions;
+
+    private static final int INITIAL_SIZE = 2;
+    private static final int MAX_SIZE = 16;
+    private static final Logger logger = LoggerFactory.getLogger(HavocStage.class);
+
+    /**
+     * Constructor
+     * @param main          fuzzer owning the program
+     * @param prog          program to mutate
+     * @param contracts     contracts checked at each execution
+     * @param verifier      verifier of the program
+     * @param statusScreen
+     * @param crashSignatures signatures of the crashes already seen
+     * @param withJVM       execute the program in a separate JVM
+     * @param javahome      target JVM
+     * @param timeout       timeout of an execution in milliseconds
+     * @param startTime     start of the fuzzer in nanoseconds
+     */
+    public HavocStage(ConfuzzionMain main,
+            Program prog,
+            ArrayList<Contract> contracts,
+            BytecodeVerifier verifier,
+            StatusScreen statusScreen,
+            HashSet<Long> crashSignatures,
+            boolean withJVM,
+            String javahome,
+            long timeout,
+            long startTime) {
+        this.main = main;
+        this.prog = prog;
+        this.contracts = contracts;
+        this.verifier = verifier;
+        this.statusScreen = statusScreen;
+        this.crashSignatures = crashSignatures;
+        this.timeoutEstimator = null;
+        this.checkpoints = null;
+        this.withJVM = withJVM;
+        this.javahome = javahome;
+        this.timeout = timeout;
+        this.startTime = startTime;
+        this.size = INITIAL_SIZE;
+        this.batch = new ArrayList<Mutation>(MAX_SIZE);
+        this.applied = 0;
+        this.stackedMutations = 0;
+        this.executions = 0;
+    }
+
+    /**
+     * @param timeoutEstimator estimator of the timeout or null to use the
+     *                         configured timeout
+     */
+    public void setTimeoutEstimator(TimeoutEstimator timeoutEstimator) {
+        this.timeoutEstimator = timeoutEstimator;
+    }
+
+    /**
+     * @param checkpoints checkpoints to which executions are attributed or
+     *                    null
+     */
+    public void setCheckpoints(Checkpoints checkpoints) {
+        this.checkpoints = checkpoints;
+    }
+
+    /**
+     * Apply a batch of mutations, execute the program and keep the mutations
+     * that do not fail
+     * @param loop           index of the main loop
+     * @param mutationsStack accepted mutations are pushed on this stack
+     * @param rand
+     * @throws IOException if the program cannot be written
+     */
+    public void run(long loop, Stack<Mutation> mutationsStack, RandomGenerator rand) throws IOException {
+        batch.clear();
+        for (int i = 0; i < size; i++) {
+            Mutation mutation = main.applyMutation(prog, statusScreen);
+            if (mutation != null) {
+                batch.add(mutation);
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        applied = batch.size();
+        stackedMutations = mutationsStack.size();
+        executions = 0;
+
+        Status status = this.execute(loop);
+        int accepted = batch.size();
+        int culprit = batch.size();
+        if (status == Status.VIOLATES) {
+            // Saved with the whole batch
+            accepted = 0;
+            culprit = batch.size() - 1;
+        } else if (status != Status.SUCCESS) {
+            // The program without the batch did not fail
+            int passing = 0;
+            int failing = batch.size();
+            while (failing - passing > 1) {
+                int middle = (passing + failing) >>> 1;
+                this.setApplied(middle);
+                Status middleStatus = this.execute(loop);
+                if (middleStatus == Status.SUCCESS) {
+                    passing = middle;
+                } else {
+                    failing = middle;
+                    status = middleStatus;
+                    if (middleStatus == Status.VIOLATES) {
+                        // Saved by execute() with this prefix of the batch
+                        break;
+                    }
+                }
+            }
+            if (status == Status.VIOLATES) {
+                accepted = 0;
+                culprit = failing - 1;
+            } else {
+                accepted = passing;
+                culprit = passing;
+            }
+            statusScreen.addCounter("havoc_bisections", 1);
+        }
+        this.setApplied(accepted);
+
+        int notExecuted = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            Mutation mutation = batch.get(i);
+            Status mutationStatus = Status.NOTEXECUTED;
+            if (i < accepted) {
+                mutationsStack.push(mutation);
+                mutationStatus = Status.SUCCESS;
+            } else if (i == culprit) {
+                mutationStatus = status;
+            }
+            if (mutationStatus == Status.NOTEXECUTED) {
+                // Not a failure of this mutation
+                notExecuted++;
+            } else {
+                statusScreen.newMutation(mutation.getClass(), mutationStatus, 0);
+            }
+            if (checkpoints != null) {
+                checkpoints.newStatus(mutationStatus);
+            }
+            if (mutation instanceof CallMethodMutation && mutationStatus != Status.NOTEXECUTED) {
+                CallMethodMutation cmm = (CallMethodMutation)mutation;
+                rand.addMethodCallStatus(cmm.getCalledMethod(),
+                        mutationStatus == Status.SUCCESS || mutationStatus == Status.VIOLATES);
+            }
+        }
+        statusScreen.newExecutions(executions);
+        statusScreen.addCounter("havoc_not_executed", notExecuted);
+
+        if (status == Status.SUCCESS) {
+            size = Math.min(MAX_SIZE, size * 2);
+        } else if (status != Status.VIOLATES) {
+            size = Math.max(1, size / 2);
+        }
+        statusScreen.setCounter("havoc_size", size);
+    }
+
+    /**
+     * Undo or redo the mutations of the batch until the given number of
+     * mutations is applied
+     */
+    private void setApplied(int target) {
+        while (applied > target) {
+            main.undoMutation(prog, batch.get(--applied), statusScreen);
+        }
+        while (applied < target) {
+            long startPhase = System.nanoTime();
+            Object event = Profiler.beginMutation();
+            Mutation mutation = batch.get(applied++);
+            mutation.redo();
+            prog.updateWeights(mutation);
+            Profiler.commitMutation(event, "redo", mutation);
+            statusScreen.newPhaseTime(Phase.MUTATION, System.nanoTime() - startPhase);
+        }
+    }
+
+    /**
+     * Execute the program with the mutations currently applied
+     * @return status of the execution
+     * @throws IOException if the program cannot be written
+     */
+    private Status execute(long loop) throws IOException {
+        List<Mutation> mutations = batch.subList(0, applied);
+        verifier.prepare(mutations);
+        ArrayList<ArrayList<ContractCheck>> contractsChecks = new ArrayList<ArrayList<ContractCheck>>(applied);
+        for (Mutation mutation : mutations) {
+            contractsChecks.add(main.addContractsChecks(prog, contracts, mutation, statusScreen));
+        }
+
+        executions++;
+        Path folder = main.getFolder(loop, "Havoc-" + executions);
+        if (withJVM) {
+            Files.createDirectories(folder);
+        }
+        long currentTimeout = timeout;
+        if (timeoutEstimator != null) {
+            currentTimeout = timeoutEstimator.getTimeout();
+            statusScreen.setCounter("timeout_ms", currentTimeout);
+        }
+        boolean keepFolder = false;
+        Status status = Status.SUCCESS;
+        long startPhase = System.nanoTime();
+        Object event = Profiler.beginExecution();
+        try {
+            if (withJVM) {
+                prog.genAndLaunchWithJVM(javahome, folder.toString(), currentTimeout);
+            } else { //with threads
+                try {
+                    prog.genAndLaunch(currentTimeout);
+                } finally {
+                    ConfuzzionMain.newInProcessExecution(prog.getExecutor(), statusScreen);
+                }
+            }
+        } catch (Throwable e) {
+            logger.warn("Exception while executing program", e);
+            status = ConfuzzionMain.executionStatus(e);
+            if (status == Status.CRASHED) {
+                ConfuzzionMain.newCrash(e, crashSignatures, statusScreen);
+            } else if (status == Status.VIOLATES) {
+                keepFolder = true;
+                main.saveViolation(prog, folder, withJVM, stackedMutations + applied - 1, startTime);
+            }
+        } finally {
+            Profiler.commitExecution(event, status, withJVM);
+            long emissionTime = prog.getEmissionTime();
+            long executionTime = System.nanoTime() - startPhase - emissionTime;
+            statusScreen.newPhaseTime(Phase.EMISSION, emissionTime);
+            statusScreen.newPhaseTime(Phase.EXECUTION, executionTime);
+            if (timeoutEstimator != null) {
+                main.newExecution(timeoutEstimator, status, executionTime, currentTimeout, statusScreen);
+            }
+            if (status == Status.SUCCESS) {
+                prog.getCost().newExecution(emissionTime + executionTime, stackedMutations + applied);
+            }
+        }
+
+        for (int i = applied - 1; i >= 0; i--) {
+            main.removeContractsChecks(prog, contractsChecks.get(i), mutations.get(i), statusScreen);
+        }
+        if (withJVM && !keepFolder) {
+            Util.deleteDirectory(folder);
+        }
+        return status;
+    }
+}
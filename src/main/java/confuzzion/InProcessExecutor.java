@@ -0,0 +1,217 @@
+package confuzzion;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Execute programs inside the fuzzer JVM. A whole program is loaded and
+ * instantiated as one task, with a new ByteClassLoader per execution, on a
+ * reused worker thread or on a new virtual thread. With layered loaders,
+ * only the classes that are not shared are defined again, and the static
+ * state of the shared classes is reset first.
+ */
+public class InProcessExecutor {
+    private boolean virtualThreads;
+    private ExecutorService executor;
+    private int leakedThreads;
+    private LayeredClassLoaders layeredLoaders;
+
+    private static final long CANCELLATION_DELAY = 100L;
+    private static final Logger logger = LoggerFactory.getLogger(InProcessExecutor.class);
+
+    class Execution implements Callable<Void> {
+        private ByteClassLoader loader;
+        private List<String> classNames;
+        private List<byte[]> bytecodes;
+        private Deadline deadline;
+        private boolean[] shared;
+        private List<String> resetClasses;
+        private volatile boolean started;
+        private CountDownLatch finished;
+
+        public Execution(ByteClassLoader loader, List<String> classNames, List<byte[]> bytecodes, Deadline deadline) {
+            this.loader = loader;
+            this.classNames = classNames;
+            this.bytecodes = bytecodes;
+            this.deadline = deadline;
+            this.shared = new boolean[classNames.size()];
+            this.resetClasses = Collections.emptyList();
+            if (layeredLoaders != null) {
+                for (int i = 0; i < classNames.size(); i++) {
+                    shared[i] = layeredLoaders.isShared(classNames.get(i));
+                }
+                resetClasses = new ArrayList<String>(layeredLoaders.getResetClasses());
+            }
+            this.started = false;
+            this.finished = new CountDownLatch(1);
+        }
+
+        @Override
+        public Void call() throws Exception {
+            started = true;
+            deadline.enter();
+            try {
+                // Initialize the static state of the shared classes again
+                for (String className : resetClasses) {
+                    Method reset = Class.forName(className, true, loader)
+                        .getDeclaredMethod(LayeredClassLoaders.RESET_METHOD);
+                    try {
+                        reset.invoke(null);
+                    } catch (InvocationTargetException e) {
+                        // As if the class was initialized by this loader
+                        throw new ExceptionInInitializerError(e.getCause());
+                    }
+                }
+                // Load and instantiate (call <init>) all classes, the last first
+                for (int i = classNames.size() - 1; i >= 0; i--) {
+                    // Call method <clinit>
+                    Class<?> clazz = null;
+                    if (shared[i]) {
+                        clazz = Class.forName(classNames.get(i), true, loader);
+                    } else {
+                        clazz = loader.load(classNames.get(i), bytecodes.get(i));
+                    }
+                    // Call method <init>
+                    try {
+                        clazz.getDeclaredConstructor().newInstance();
+                    } catch (InvocationTargetException e) {
+                        Throwable cause = e.getCause();
+                        if (cause instanceof Exception) {
+                            throw (Exception)cause;
+                        } else if (cause instanceof Error) {
+                            throw (Error)cause;
+                        }
+                        throw e;
+                    }
+                }
+            } finally {
+                Deadline.leave();
+                finished.countDown();
+            }
+            return null;
+        }
+
+        /**
+         * Wait for the end of the execution after a cancellation
+         * @return true if the execution is not running
+         */
+        public boolean awaitStop(long timeout) throws InterruptedException {
+            return !started || finished.await(timeout, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Constructor
+     * @param virtualThreads use a virtual thread per execution if the runtime
+     *                       supports it
+     * @param layeredLoaders keep unchanged classes in a shared class loader
+     */
+    public InProcessExecutor(boolean virtualThreads, boolean layeredLoaders) {
+        this.virtualThreads = virtualThreads;
+        this.leakedThreads = 0;
+        this.layeredLoaders = layeredLoaders ? new LayeredClassLoaders() : null;
+        this.executor = this.newExecutor();
+    }
+
+    private ExecutorService newExecutor() {
+        if (virtualThreads) {
+            try {
+                Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (ExecutorService)method.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                logger.warn("Virtual threads are not supported by this runtime");
+                virtualThreads = false;
+            }
+        }
+        return Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "confuzzion-executor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Execute a program
+     * @param classNames names of the classes
+     * @param bytecodes  bytecode of each class
+     * @param timeout    in milliseconds before cancelling the execution
+     * @throws Throwable the exception thrown by the program or
+     *                   InterruptedException
+     */
+    public void execute(List<String> classNames, List<byte[]> bytecodes, long timeout) throws Throwable {
+        ClassLoader parent = Thread.currentThread().getContextClassLoader();
+        ByteClassLoader loader = null;
+        if (layeredLoaders != null) {
+            loader = layeredLoaders.prepare(classNames, bytecodes, parent);
+        } else {
+            loader = new ByteClassLoader(parent);
+        }
+        Execution execution = new Execution(loader, classNames, bytecodes, new Deadline(timeout));
+        Future<Void> future = executor.submit(execution);
+        try {
+            future.get(timeout, TimeUnit.MILLISECONDS);
+            if (layeredLoaders != null) {
+                layeredLoaders.succeeded();
+            }
+        } catch (ExecutionException e) {
+            throw e.getCause();
+        } catch (TimeoutException e) {
+            this.cancel(execution, future);
+            throw new InterruptedException();
+        }
+    }
+
+    private void cancel(Execution execution, Future<Void> future) throws InterruptedException {
+        // Stop at the next deadline check or blocking call
+        execution.deadline.expire();
+        future.cancel(true);
+        if (execution.awaitStop(CANCELLATION_DELAY)) {
+            return;
+        }
+        leakedThreads++;
+        if (layeredLoaders != null) {
+            // The thread may still change the static state of shared classes
+            layeredLoaders.invalidate();
+        }
+        if (virtualThreads) {
+            logger.warn("Execution does not stop, leaving its virtual thread");
+        } else {
+            // The worker thread is stuck: leave it and use a new one
+            logger.warn("Execution does not stop, replacing the worker thread");
+            executor.shutdownNow();
+            executor = this.newExecutor();
+        }
+    }
+
+    /**
+     * @return the layered loaders or null if they are not used
+     */
+    public LayeredClassLoaders getLayeredLoaders() {
+        return layeredLoaders;
+    }
+
+    /**
+     * @return number of threads that did not stop after a timeout
+     */
+    public int getLeakedThreads() {
+        return leakedThreads;
+    }
+}
@@ -0,0 +1,143 @@
+package confuzzion;
+
+import jdk.jfr.Category;
+import jdk.jfr.Configuration;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.ParseException;
+
+/**
+ * Java Flight Recorder events of the fuzzer. This class must only be loaded
+ * through Profiler, once a recording has been started, because jdk.jfr may
+ * not be available on the running JVM.
+ */
+class JfrProfiler {
+    private static Recording recording;
+
+    @Name("confuzzion.Mutation")
+    @Label("Mutation")
+    @Category("Confuzzion")
+    @Description("Apply or undo a mutation")
+    static class MutationEvent extends Event {
+        @Label("Action")
+        String action;
+
+        @Label("Operator")
+        String operator;
+
+        @Label("Target")
+        String target;
+    }
+
+    @Name("confuzzion.Contracts")
+    @Label("Contracts Instrumentation")
+    @Category("Confuzzion")
+    @Description("Add or remove contracts checks applied at emission")
+    static class ContractsEvent extends Event {
+        @Label("Action")
+        String action;
+
+        @Label("Target")
+        String target;
+
+        @Label("Units")
+        int units;
+    }
+
+    @Name("confuzzion.Emission")
+    @Label("Bytecode Emission")
+    @Category("Confuzzion")
+    @Description("Build the bytecode of a Mutant")
+    static class EmissionEvent extends Event {
+        @Label("Class")
+        String className;
+
+        @Label("Size")
+        @DataAmount
+        int size;
+    }
+
+    @Name("confuzzion.Execution")
+    @Label("Execution")
+    @Category("Confuzzion")
+    @Description("Execute the program in a thread or a JVM")
+    static class ExecutionEvent extends Event {
+        @Label("Status")
+        String status;
+
+        @Label("With JVM")
+        boolean withJVM;
+    }
+
+    static void start(Path destination) throws IOException, ParseException {
+        recording = new Recording(Configuration.getConfiguration("default"));
+        recording.setName("confuzzion");
+        recording.setToDisk(true);
+        recording.setDumpOnExit(true);
+        recording.setDestination(destination);
+        recording.start();
+    }
+
+    static void stop() {
+        recording.stop();
+        recording.close();
+    }
+
+    static Object begin(Profiler.Kind kind) {
+        Event event = null;
+        switch (kind) {
+        case MUTATION:
+            event = new MutationEvent();
+            break;
+        case CONTRACTS:
+            event = new ContractsEvent();
+            break;
+        case EMISSION:
+            event = new EmissionEvent();
+            break;
+        case EXECUTION:
+        default:
+            event = new ExecutionEvent();
+            break;
+        }
+        event.begin();
+        return event;
+    }
+
+    static void commitMutation(Object event, String action, String operator, String target) {
+        MutationEvent mEvent = (MutationEvent)event;
+        mEvent.action = action;
+        mEvent.operator = operator;
+        mEvent.target = target;
+        mEvent.commit();
+    }
+
+    static void commitContracts(Object event, String action, String target, int units) {
+        ContractsEvent cEvent = (ContractsEvent)event;
+        cEvent.action = action;
+        cEvent.target = target;
+        cEvent.units = units;
+        cEvent.commit();
+    }
+
+    static void commitEmission(Object event, String className, int size) {
+        EmissionEvent eEvent = (EmissionEvent)event;
+        eEvent.className = className;
+        eEvent.size = size;
+        eEvent.commit();
+    }
+
+    static void commitExecution(Object event, Status status, boolean withJVM) {
+        ExecutionEvent eEvent = (ExecutionEvent)event;
+        eEvent.status = status.name();
+        eEvent.withJVM = withJVM;
+        eEvent.commit();
+    }
+}
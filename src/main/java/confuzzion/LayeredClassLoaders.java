@@ -0,0 +1,393 @@
+package confuzzion;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.commons.ClassRemapper;
+import org.objectweb.asm.commons.MethodRemapper;
+import org.objectweb.asm.commons.Remapper;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Class loaders of programs executed inside the fuzzer JVM. Classes whose
+ * bytecode did not change since the last successful execution are kept in a
+ * shared parent loader, the other classes are defined in a new
+ * ByteClassLoader for each execution.
+ * A shared class is defined with its &lt;clinit&gt; renamed to a static
+ * reset method that first puts back the default values of its static
+ * fields. The executor calls the reset methods before each execution, so
+ * the static state of a shared class is initialized again as if the class
+ * was new. A class is shared only if all program classes it references are
+ * also shared, and it is never shared if its &lt;clinit&gt; assigns a final
+ * static field (only a real &lt;clinit&gt; can) or references another
+ * program class (the initialization order would change).
+ * The shared loader is dropped (a full reload) when a mutation changes a
+ * shared class or makes it ineligible, and when a thread of an execution
+ * that did not stop may still use the shared classes.
+ */
+public class LayeredClassLoaders {
+    private SharedClassLoader sharedLoader;
+    private HashMap<String, ClassInfo> infos;
+    private HashMap<String, ClassInfo> pendingInfos;
+    private Set<String> sharedClasses;
+    private ArrayList<String> resetClasses;
+    private int fullReloads;
+    private long sharedLoads;
+
+    /**
+     * Name of the method that replaces the &lt;clinit&gt; of shared classes
+     */
+    public static final String RESET_METHOD = "confuzzion$reset";
+
+    private static final Logger logger = LoggerFactory.getLogger(LayeredClassLoaders.class);
+
+    class SharedClassLoader extends ClassLoader {
+        private HashMap<String, byte[]> bytecodes;
+
+        public SharedClassLoader(ClassLoader parent) {
+            super(parent);
+            bytecodes = new HashMap<String, byte[]>();
+        }
+
+        public void add(String className, byte[] bytecode) {
+            bytecodes.put(className, bytecode);
+        }
+
+        @Override
+        protected Class<?> findClass(String className) throws ClassNotFoundException {
+            byte[] bytecode = bytecodes.get(className);
+            if (bytecode == null) {
+                throw new ClassNotFoundException(className);
+            }
+            return this.defineClass(className, bytecode, 0, bytecode.length, null);
+        }
+    }
+
+    /**
+     * Properties of a version of a class
+     */
+    class ClassInfo {
+        private byte[] bytecode;
+        // Bytecode defined by the shared loader, with the reset method
+        private byte[] sharedBytecode;
+        private boolean hasReset;
+        // Why the class cannot be shared, null if it can
+        private String ineligibility;
+        private Set<String> references;
+        private Set<String> clinitReferences;
+        private boolean unchanged;
+
+        public ClassInfo(String className, byte[] bytecode) {
+            this.bytecode = bytecode;
+            this.references = new HashSet<String>();
+            this.clinitReferences = new HashSet<String>();
+            this.unchanged = false;
+            ClassNode classNode = new ClassNode();
+            try {
+                new ClassReader(bytecode).accept(new ClassRemapper(classNode, new Collector(references)), 0);
+            } catch (IllegalArgumentException e) {
+                ineligibility = "unsupported class version";
+                return;
+            }
+
+            MethodNode clinit = null;
+            for (MethodNode method : classNode.methods) {
+                if (method.name.equals("<clinit>")) {
+                    clinit = method;
+                }
+            }
+            boolean hasStatics = clinit != null;
+            for (FieldNode field : classNode.fields) {
+                hasStatics |= (field.access & Opcodes.ACC_STATIC) != 0;
+            }
+            if (!hasStatics) {
+                sharedBytecode = bytecode;
+                hasReset = false;
+                return;
+            }
+            if ((classNode.access & Opcodes.ACC_INTERFACE) != 0) {
+                ineligibility = "static state of an interface";
+                return;
+            }
+            if (clinit != null) {
+                clinit.accept(new MethodRemapper(new MethodNode(), new Collector(clinitReferences)));
+                clinitReferences.remove(className);
+                for (AbstractInsnNode insn : clinit.instructions.toArray()) {
+                    if (insn.getOpcode() == Opcodes.PUTSTATIC &&
+                            LayeredClassLoaders.isFinalField(classNode, (FieldInsnNode)insn)) {
+                        ineligibility = "<clinit> assigns a final static field";
+                        return;
+                    }
+                }
+            }
+            sharedBytecode = LayeredClassLoaders.addResetMethod(classNode, clinit);
+            hasReset = true;
+        }
+    }
+
+    /**
+     * Collect the names of the classes referenced by the visited code
+     */
+    static class Collector extends Remapper {
+        private Set<String> names;
+
+        public Collector(Set<String> names) {
+            this.names = names;
+        }
+
+        @Override
+        public String map(String internalName) {
+            names.add(internalName.replace('/', '.'));
+            return internalName;
+        }
+    }
+
+    public LayeredClassLoaders() {
+        sharedLoader = null;
+        infos = new HashMap<String, ClassInfo>();
+        pendingInfos = null;
+        sharedClasses = new HashSet<String>();
+        resetClasses = new ArrayList<String>();
+        fullReloads = 0;
+        sharedLoads = 0;
+    }
+
+    /**
+     * Choose the shared classes of the next execution
+     * @param classNames names of the classes of the program
+     * @param bytecodes  bytecode of each class
+     * @param parent     parent of the shared loader
+     * @return a new loader for the classes that are not shared
+     */
+    public ByteClassLoader prepare(List<String> classNames, List<byte[]> bytecodes, ClassLoader parent) {
+        // Compared with the last successful execution, see succeeded()
+        HashMap<String, ClassInfo> newInfos = new HashMap<String, ClassInfo>();
+        for (int i = 0; i < classNames.size(); i++) {
+            String className = classNames.get(i);
+            ClassInfo info = infos.get(className);
+            if (info != null && Arrays.equals(info.bytecode, bytecodes.get(i))) {
+                info.unchanged = true;
+            } else {
+                info = new ClassInfo(className, bytecodes.get(i));
+            }
+            newInfos.put(className, info);
+        }
+        pendingInfos = newInfos;
+
+        // Keep unchanged eligible classes that only reference shared classes
+        HashSet<String> shared = new HashSet<String>();
+        for (Map.Entry<String, ClassInfo> entry : newInfos.entrySet()) {
+            ClassInfo info = entry.getValue();
+            if (!info.unchanged || info.ineligibility != null) {
+                continue;
+            }
+            boolean isolated = true;
+            for (String reference : info.clinitReferences) {
+                isolated &= !newInfos.containsKey(reference);
+            }
+            if (isolated) {
+                shared.add(entry.getKey());
+            }
+        }
+        boolean removed = true;
+        while (removed) {
+            removed = false;
+            for (String className : new HashSet<String>(shared)) {
+                for (String reference : newInfos.get(className).references) {
+                    if (newInfos.containsKey(reference) && !shared.contains(reference)) {
+                        shared.remove(className);
+                        removed = true;
+                        break;
+                    }
+                }
+            }
+        }
+
+        if (sharedLoader == null || !shared.containsAll(sharedClasses)) {
+            if (!sharedClasses.isEmpty()) {
+                this.fullReload(newInfos, shared);
+            }
+            sharedLoader = new SharedClassLoader(parent);
+            sharedClasses = new HashSet<String>();
+        }
+        for (String className : shared) {
+            if (sharedClasses.add(className)) {
+                sharedLoader.add(className, newInfos.get(className).sharedBytecode);
+            }
+        }
+        // In the order of execution, the last class first
+        resetClasses = new ArrayList<String>();
+        for (int i = classNames.size() - 1; i >= 0; i--) {
+            String className = classNames.get(i);
+            if (sharedClasses.contains(className) && newInfos.get(className).hasReset) {
+                resetClasses.add(className);
+            }
+        }
+        sharedLoads += sharedClasses.size();
+        return new ByteClassLoader(sharedLoader);
+    }
+
+    private void fullReload(HashMap<String, ClassInfo> newInfos, Set<String> shared) {
+        fullReloads++;
+        if (!logger.isDebugEnabled()) {
+            return;
+        }
+        for (String className : sharedClasses) {
+            if (shared.contains(className)) {
+                continue;
+            }
+            ClassInfo info = newInfos.get(className);
+            if (info == null) {
+                logger.debug("Full reload: shared class {} removed", className);
+            } else if (!info.unchanged) {
+                logger.debug("Full reload: shared class {} changed", className);
+            } else {
+                logger.debug("Full reload: shared class {} references a class that is not shared", className);
+            }
+        }
+    }
+
+    /**
+     * The execution prepared by the last call to prepare() succeeded: its
+     * classes are the reference of the next execution. A class changed by a
+     * failed execution is not shared until it runs successfully.
+     */
+    public void succeeded() {
+        if (pendingInfos != null) {
+            infos = pendingInfos;
+            pendingInfos = null;
+        }
+    }
+
+    /**
+     * Drop the shared loader, for example when a thread of an execution that
+     * did not stop may still use the shared classes
+     */
+    public void invalidate() {
+        if (!sharedClasses.isEmpty()) {
+            fullReloads++;
+            logger.debug("Full reload: an execution did not stop");
+        }
+        sharedLoader = null;
+        sharedClasses = new HashSet<String>();
+        resetClasses = new ArrayList<String>();
+    }
+
+    /**
+     * @param className name of a class of the program
+     * @return true if the class is defined by the shared loader
+     */
+    public boolean isShared(String className) {
+        return sharedClasses.contains(className);
+    }
+
+    /**
+     * @return shared classes with a reset method to call before the next
+     *         execution, in the order of execution
+     */
+    public List<String> getResetClasses() {
+        return resetClasses;
+    }
+
+    /**
+     * @return number of shared classes for the last execution
+     */
+    public int getNumberOfSharedClasses() {
+        return sharedClasses.size();
+    }
+
+    /**
+     * @return number of classes taken from the shared loader instead of
+     *         being defined again, over all executions
+     */
+    public long getSharedLoads() {
+        return sharedLoads;
+    }
+
+    /**
+     * @return number of times the shared loader has been dropped
+     */
+    public int getFullReloads() {
+        return fullReloads;
+    }
+
+    private static boolean isFinalField(ClassNode classNode, FieldInsnNode insn) {
+        if (!insn.owner.equals(classNode.name)) {
+            return false;
+        }
+        for (FieldNode field : classNode.fields) {
+            if (field.name.equals(insn.name) && field.desc.equals(insn.desc)) {
+                return (field.access & Opcodes.ACC_FINAL) != 0;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Replace the &lt;clinit&gt; of a class by a reset method that puts back
+     * the default values of the static fields and runs the initializer
+     * @param classNode the class, read with its frames
+     * @param clinit the &lt;clinit&gt; of the class or null
+     * @return the bytecode of the class with the reset method
+     */
+    private static byte[] addResetMethod(ClassNode classNode, MethodNode clinit) {
+        MethodNode reset = clinit;
+        if (reset == null) {
+            reset = new MethodNode(0, RESET_METHOD, "()V", null, null);
+            reset.instructions.add(new InsnNode(Opcodes.RETURN));
+            classNode.methods.add(reset);
+        }
+        reset.name = RESET_METHOD;
+        reset.access = Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC | Opcodes.ACC_SYNTHETIC;
+
+        InsnList defaults = new InsnList();
+        for (FieldNode field : classNode.fields) {
+            if ((field.access & Opcodes.ACC_STATIC) == 0 ||
+                    (field.access & Opcodes.ACC_FINAL) != 0) {
+                continue;
+            }
+            switch (field.desc.charAt(0)) {
+            case 'J':
+                defaults.add(new InsnNode(Opcodes.LCONST_0));
+                break;
+            case 'F':
+                defaults.add(new InsnNode(Opcodes.FCONST_0));
+                break;
+            case 'D':
+                defaults.add(new InsnNode(Opcodes.DCONST_0));
+                break;
+            case 'L':
+            case '[':
+                defaults.add(new InsnNode(Opcodes.ACONST_NULL));
+                break;
+            default:
+                defaults.add(new InsnNode(Opcodes.ICONST_0));
+                break;
+            }
+            defaults.add(new FieldInsnNode(Opcodes.PUTSTATIC, classNode.name, field.name, field.desc));
+        }
+        reset.instructions.insert(defaults);
+
+        // Frames are kept: the defaults leave the stack empty
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        classNode.accept(writer);
+        return writer.toByteArray();
+    }
+}
@@ -0,0 +1,248 @@
+package confuzzion;
+
+import soot.Body;
+import soot.Local;
+import soot.RefType;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootField;
+import soot.Type;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Locals of a body bucketed by the types they can be assigned to, and the
+ * accessible fields of the reference locals bucketed by type. Buckets are
+ * built on the first lookup of a type and then kept up to date by
+ * BodyMutation when locals are added or removed, so looking up a value of a
+ * type does not scan the locals of the body again.
+ * Field buckets are dropped when a field of the program is added or removed
+ * (fieldsChanged()). The index is rebuilt if the locals of the body are
+ * changed without BodyMutation.
+ */
+public class LocalIndex {
+    // Not the body: the index is the value of a weak map keyed by the body
+    private SootClass declaringClass;
+    private ArrayList<Local> locals;
+    private ArrayList<Local> refLocals;
+    private HashMap<Type, ArrayList<Local>> compatibleLocals;
+    private HashMap<Type, FieldBucket> compatibleFields;
+    private long fieldsVersion;
+
+    private static final Map<Body, LocalIndex> indexes =
+        Collections.synchronizedMap(new WeakHashMap<Body, LocalIndex>());
+    private static volatile long currentFieldsVersion = 0;
+
+    /**
+     * Fields of the reference locals of a type, with the local to access
+     * each instance field
+     */
+    public static class FieldBucket {
+        private ArrayList<SootField> fields;
+        private ArrayList<Local> locals;
+
+        public FieldBucket() {
+            this.fields = new ArrayList<SootField>(5);
+            this.locals = new ArrayList<Local>(5);
+        }
+
+        public int size() {
+            return fields.size();
+        }
+
+        public SootField getField(int index) {
+            return fields.get(index);
+        }
+
+        public Local getLocal(int index) {
+            return locals.get(index);
+        }
+    }
+
+    private LocalIndex(Body body) {
+        this.declaringClass = body.getMethod().getDeclaringClass();
+        this.locals = new ArrayList<Local>(body.getLocals());
+        this.refLocals = new ArrayList<Local>();
+        this.compatibleLocals = new HashMap<Type, ArrayList<Local>>();
+        this.compatibleFields = new HashMap<Type, FieldBucket>();
+        this.fieldsVersion = currentFieldsVersion;
+        for (Local local : locals) {
+            if (local.getType() instanceof RefType) {
+                refLocals.add(local);
+            }
+        }
+    }
+
+    /**
+     * @param body a body
+     * @return the index of the body, built if needed
+     */
+    public static LocalIndex of(Body body) {
+        LocalIndex index = indexes.get(body);
+        if (index == null || index.locals.size() != body.getLocals().size()) {
+            index = new LocalIndex(body);
+            indexes.put(body, index);
+        }
+        return index;
+    }
+
+    /**
+     * Add a local to the index of a body, if the body has one
+     */
+    public static void addLocal(Body body, Local local) {
+        LocalIndex index = indexes.get(body);
+        if (index != null) {
+            index.add(local);
+        }
+    }
+
+    /**
+     * Remove a local from the index of a body, if the body has one
+     */
+    public static void removeLocal(Body body, Local local) {
+        LocalIndex index = indexes.get(body);
+        if (index != null) {
+            index.remove(local);
+        }
+    }
+
+    /**
+     * Drop the field buckets of all indexes, after a field is added to or
+     * removed from a class
+     */
+    public static void fieldsChanged() {
+        currentFieldsVersion++;
+    }
+
+    /**
+     * @return a number that changes each time fieldsChanged() is called
+     */
+    public static long getFieldsVersion() {
+        return currentFieldsVersion;
+    }
+
+    /**
+     * @return all locals of the body, in no particular order
+     */
+    public ArrayList<Local> getLocals() {
+        return locals;
+    }
+
+    /**
+     * @return locals of the body with a RefType
+     */
+    public ArrayList<Local> getRefLocals() {
+        return refLocals;
+    }
+
+    /**
+     * @param type a type
+     * @return locals that can be assigned to a value of this type
+     */
+    public ArrayList<Local> getCompatibleLocals(Type type) {
+        ArrayList<Local> bucket = compatibleLocals.get(type);
+        if (bucket == null) {
+            bucket = new ArrayList<Local>(5);
+            for (Local local : locals) {
+                if (LocalIndex.isCompatible(local.getType(), type)) {
+                    bucket.add(local);
+                }
+            }
+            compatibleLocals.put(type, bucket);
+        }
+        return bucket;
+    }
+
+    /**
+     * @param type a type
+     * @return fields accessible from the body through its reference locals
+     *         that can be assigned to a value of this type
+     */
+    public FieldBucket getCompatibleFields(Type type) {
+        if (fieldsVersion != currentFieldsVersion) {
+            compatibleFields.clear();
+            fieldsVersion = currentFieldsVersion;
+        }
+        FieldBucket bucket = compatibleFields.get(type);
+        if (bucket == null) {
+            bucket = new FieldBucket();
+            for (Local local : refLocals) {
+                this.addFields(bucket, local, type);
+            }
+            compatibleFields.put(type, bucket);
+        }
+        return bucket;
+    }
+
+    private void add(Local local) {
+        locals.add(local);
+        Type localType = local.getType();
+        if (localType instanceof RefType) {
+            refLocals.add(local);
+        }
+        for (Map.Entry<Type, ArrayList<Local>> entry : compatibleLocals.entrySet()) {
+            if (LocalIndex.isCompatible(localType, entry.getKey())) {
+                entry.getValue().add(local);
+            }
+        }
+        if (localType instanceof RefType) {
+            for (Map.Entry<Type, FieldBucket> entry : compatibleFields.entrySet()) {
+                this.addFields(entry.getValue(), local, entry.getKey());
+            }
+        }
+    }
+
+    private void remove(Local local) {
+        // Locals are usually removed in the reverse order of their addition
+        LocalIndex.removeLast(locals, local);
+        LocalIndex.removeLast(refLocals, local);
+        for (ArrayList<Local> bucket : compatibleLocals.values()) {
+            LocalIndex.removeLast(bucket, local);
+        }
+        for (FieldBucket bucket : compatibleFields.values()) {
+            for (int i = bucket.locals.size() - 1; i >= 0; i--) {
+                if (bucket.locals.get(i) == local) {
+                    bucket.locals.remove(i);
+                    bucket.fields.remove(i);
+                }
+            }
+        }
+    }
+
+    private void addFields(FieldBucket bucket, Local local, Type type) {
+        SootClass sClass = Util.getOrLoadSootClass(local.getType().toString());
+        for (SootField field : sClass.getFields()) {
+            // Is field accessible ?
+            if (sClass == declaringClass ||
+                    field.isPublic() ||
+                    field.isProtected()) {
+                // Is field compatible ?
+                if (LocalIndex.isCompatible(field.getType(), type)) {
+                    bucket.fields.add(field);
+                    bucket.locals.add(local);
+                }
+            }
+        }
+    }
+
+    private static void removeLast(ArrayList<Local> list, Local local) {
+        int index = list.lastIndexOf(local);
+        if (index >= 0) {
+            list.remove(index);
+        }
+    }
+
+    /**
+     * Same type or sub-type is compatible for assignment
+     */
+    private static boolean isCompatible(Type valueType, Type type) {
+        return valueType == type ||
+            (valueType instanceof RefType &&
+                    type instanceof RefType &&
+                    type.merge(valueType, Scene.v()) == type);
+    }
+}
@@ -4,8 +4,6 @@ import soot.ArrayType;
 import soot.Body;
 import soot.Local;
 import soot.PrimType;
-import soot.RefType;
-import soot.Scene;
 import soot.SootClass;
 import soot.SootField;
 import soot.SootMethod;
@@ -39,6 +37,7 @@ public abstract class MethodMutation extends Mutation {
     protected MethodMutation(RandomGenerator rand, SootMethod method) {
         super(rand);
         this.method = method;
+        ProgramSnapshot.copyOnWrite(method);
         this.mutation = new BodyMutation(method.getActiveBody());
     }
 
@@ -54,6 +53,11 @@ public abstract class MethodMutation extends Mutation {
         mutation.undo();
     }
 
+    @Override
+    public void redo() {
+        mutation.redo();
+    }
+
     /**
      * Change all constants added by the mutation
      */
@@ -69,6 +73,14 @@ public abstract class MethodMutation extends Mutation {
                 box.setValue(val);
             }
         }
+        BodyMutation.changed(mutation.getBody());
+    }
+
+    @Override
+    public List<BodyMutation> getBodyMutations() {
+        List<BodyMutation> mutations = new ArrayList<BodyMutation>(1);
+        mutations.add(mutation);
+        return mutations;
     }
 
     /**
@@ -78,43 +90,16 @@ public abstract class MethodMutation extends Mutation {
      * @return NullConstant or an appropriate Value
      */
     protected Value getOrGenValue(Body body, Type type) {
-        ArrayList<Local> compatibleLocals = new ArrayList<Local>(5);
-        ArrayList<SootField> compatibleFields = new ArrayList<SootField>(5);
-        ArrayList<Local> correspondingLocals = new ArrayList<Local>(5);
-        for (Local loc : body.getLocals()) {
-            // Same type or sub-type is compatible for assignment
-            if (loc.getType() == type ||
-                    (type instanceof RefType &&
-                            loc.getType() instanceof RefType &&
-                            type.merge(loc.getType(), Scene.v()) == type)) {
-                compatibleLocals.add(loc);
-            }
-            if (loc.getType() instanceof RefType) {
-                SootClass sClass = Util.getOrLoadSootClass(loc.getType().toString());
-                for (SootField field : sClass.getFields()) {
-                    // Is field accessible ?
-                    if (sClass == body.getMethod().getDeclaringClass() ||
-                            field.isPublic() ||
-                            field.isProtected()) {
-                        // Is field compatible ?
-                        if (field.getType() == type ||
-                                (type instanceof RefType &&
-                                        field.getType() instanceof RefType &&
-                                        type.merge(field.getType(), Scene.v()) == type)) {
-                            compatibleFields.add(field);
-                            correspondingLocals.add(loc);
-                        }
-                    }
-                }
-            }
-        }
+        LocalIndex index = LocalIndex.of(body);
+        ArrayList<Local> compatibleLocals = index.getCompatibleLocals(type);
+        LocalIndex.FieldBucket compatibleFields = index.getCompatibleFields(type);
 
         Value val = null;
         if (compatibleLocals.size() > 0 && rand.nextBoolean()) {
             val = compatibleLocals.get(rand.nextUint(compatibleLocals.size()));
         } else if (compatibleFields.size() > 0 && rand.nextBoolean()) {
-            int index = rand.nextUint(compatibleFields.size());
-            SootField field = compatibleFields.get(index);
+            int fieldIndex = rand.nextUint(compatibleFields.size());
+            SootField field = compatibleFields.getField(fieldIndex);
             Local loc = Jimple.v().newLocal("local" + rand.nextIncrement(), type);
             mutation.addLocal(loc);
             if (field.isStatic()) {
@@ -124,7 +109,7 @@ public abstract class MethodMutation extends Mutation {
             } else {
                 mutation.addUnit(
                         Jimple.v().newAssignStmt(loc,
-                                Jimple.v().newInstanceFieldRef(correspondingLocals.get(index),
+                                Jimple.v().newInstanceFieldRef(compatibleFields.getLocal(fieldIndex),
                                         field.makeRef())));
             }
             val = loc;
@@ -154,7 +139,7 @@ public abstract class MethodMutation extends Mutation {
         Value arraySize = IntConstant.v(rand.nextUint(100) + 1);
         mutation.addUnit(Jimple.v().newAssignStmt(loc,
                 Jimple.v().newNewArrayExpr(baseType, arraySize)));
-        Local value0 = rand.randLocal(body.getLocals(), baseType);
+        Local value0 = rand.randLocal(body, baseType);
         if (value0 != null) {
             mutation.addUnit(Jimple.v().newAssignStmt(Jimple.v().newArrayRef(loc, IntConstant.v(0)), value0));
         }
@@ -189,7 +174,7 @@ public abstract class MethodMutation extends Mutation {
         // In case its the MethodHandle class use MethodHandles.Lookup nested class
         if (clazz.getName().equals("java.lang.invoke.MethodHandle")) {
             SootClass lookupClass = Util.getOrLoadSootClass("java.lang.invoke.MethodHandles$Lookup");
-            Local lookupLocal = rand.randLocal(body.getLocals(), lookupClass.getType());
+            Local lookupLocal = rand.randLocal(body, lookupClass.getType());
             if (lookupLocal == null) {
                 SootClass handlesClass = Util.getOrLoadSootClass("java.lang.invoke.MethodHandles");
                 SootMethod lookupMethod = handlesClass.getMethodByName("lookup");
@@ -0,0 +1,52 @@
+package confuzzion;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Embedded HTTP server exposing the StatusScreen statistics on localhost in
+ * the Prometheus text format at /metrics
+ */
+public class MetricsServer {
+    private HttpServer server;
+    private StatusScreen statusScreen;
+
+    class MetricsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            byte[] response = statusScreen.toPrometheus().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, response.length);
+            OutputStream body = exchange.getResponseBody();
+            body.write(response);
+            body.close();
+        }
+    }
+
+    /**
+     * Constructor
+     * @param statusScreen the statistics to export
+     * @param port         TCP port on the loopback interface
+     * @throws IOException if the server cannot be created
+     */
+    public MetricsServer(StatusScreen statusScreen, int port) throws IOException {
+        this.statusScreen = statusScreen;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", new MetricsHandler());
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+}
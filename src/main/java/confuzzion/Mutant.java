@@ -17,7 +17,6 @@ import soot.util.JasminOutputStream;
 
 import java.io.ByteArrayOutputStream;
 import java.io.FileDescriptor;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -25,6 +24,7 @@ import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.lang.reflect.Modifier;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -90,10 +90,20 @@ public class Mutant {
      * @return filepath
      */
     public String toClassFile(String folder) {
+        return this.toClassFile(folder, this.toClass());
+    }
+
+    /**
+     * Save bytecode already built for this class as a .class file
+     * @param  folder   destination folder that already exists
+     * @param  bytecode the result of toClass()
+     * @return filepath
+     */
+    public String toClassFile(String folder, byte[] bytecode) {
         String fileName = Paths.get(folder, sClass.getShortName() + ".class").toString();
         try {
-            this.toBytecode(new FileOutputStream(fileName));
-        } catch (FileNotFoundException e) {
+            Files.write(Paths.get(fileName), bytecode);
+        } catch (IOException e) {
             logger.error("File {}", fileName, e);
         }
         return fileName;
@@ -104,9 +114,11 @@ public class Mutant {
      * @return bytecode of the class as an array or byte
      */
     public byte[] toClass() {
+        Object event = Profiler.beginEmission();
         ByteArrayOutputStream stream = new ByteArrayOutputStream();
         this.toBytecode(stream);
         byte[] classContent = stream.toByteArray();
+        Profiler.commitEmission(event, sClass.getName(), classContent.length);
         return classContent;
     }
 
@@ -1,5 +1,8 @@
 package confuzzion;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Class Mutation describes a change
  */
@@ -19,8 +22,22 @@ public abstract class Mutation {
      */
     public abstract void undo();
 
+    /**
+     * Apply again a reverted mutation. Mutations applied after this one
+     * must have been reverted too and are redone afterwards, in order.
+     */
+    public abstract void redo();
+
     /**
      * Change added constants
      */
     public abstract void randomConstants();
+
+    /**
+     * @return changes of method bodies whose constants are changed by
+     *         randomConstants()
+     */
+    public List<BodyMutation> getBodyMutations() {
+        return new ArrayList<BodyMutation>(0);
+    }
 }
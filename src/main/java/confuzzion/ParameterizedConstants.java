@@ -0,0 +1,153 @@
+package confuzzion;
+
+import soot.Local;
+import soot.SootClass;
+import soot.Unit;
+import soot.Value;
+import soot.ValueBox;
+import soot.jimple.Constant;
+import soot.jimple.DoubleConstant;
+import soot.jimple.FloatConstant;
+import soot.jimple.IntConstant;
+import soot.jimple.Jimple;
+import soot.jimple.LongConstant;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+/**
+ * Constants added by a mutation, replaced by loads from the ConstantsTable of
+ * the runtime. The program is emitted once and the Worker executes it with
+ * each row of the table: row 0 contains the current constants, the other
+ * rows random constants, as randomConstants() would choose them.
+ */
+public class ParameterizedConstants {
+    private ArrayList<ValueBox> boxes;
+    private ArrayList<Constant[]> columns;
+    private ArrayList<BodyMutation> loads;
+    private int numberOfRows;
+    private boolean restored;
+
+    /**
+     * Replace the constants of the mutation by loads from the table
+     * @param mutation     the last mutation
+     * @param rand         the RandomGenerator to use
+     * @param numberOfRows number of constants tries
+     */
+    public ParameterizedConstants(Mutation mutation, RandomGenerator rand, int numberOfRows) {
+        this.boxes = new ArrayList<ValueBox>();
+        this.columns = new ArrayList<Constant[]>();
+        this.loads = new ArrayList<BodyMutation>();
+        this.numberOfRows = numberOfRows;
+        this.restored = false;
+
+        SootClass table = Util.getOrLoadSootClass("confuzzion.ConstantsTable");
+        for (BodyMutation bodyMutation : mutation.getBodyMutations()) {
+            BodyMutation load = new BodyMutation(bodyMutation.getBody());
+            for (Unit unit : new ArrayList<Unit>(bodyMutation.getUnits())) {
+                for (ValueBox box : unit.getUseBoxes()) {
+                    if (!(box.getValue() instanceof Constant)) {
+                        continue;
+                    }
+                    Constant constant = (Constant)box.getValue();
+                    String getter = ParameterizedConstants.getterOf(constant);
+                    if (getter == null) {
+                        continue;
+                    }
+                    Local local = Jimple.v().newLocal("constant" + rand.nextIncrement(), constant.getType());
+                    if (!box.canContainValue(local)) {
+                        continue;
+                    }
+                    Constant[] column = new Constant[numberOfRows];
+                    column[0] = constant;
+                    for (int row = 1; row < numberOfRows; row++) {
+                        Value val = rand.randConstant(constant.getType());
+                        column[row] = (val instanceof Constant) ? (Constant)val : constant;
+                    }
+                    load.addLocal(local);
+                    // Jumps to the unit must also load the constant
+                    load.addUnitBeforeRedirect(Jimple.v().newAssignStmt(local,
+                            Jimple.v().newStaticInvokeExpr(table.getMethodByName(getter).makeRef(),
+                                    IntConstant.v(boxes.size()))), unit);
+                    box.setValue(local);
+                    boxes.add(box);
+                    columns.add(column);
+                }
+            }
+            loads.add(load);
+        }
+    }
+
+    /**
+     * @return number of constants loaded from the table
+     */
+    public int size() {
+        return boxes.size();
+    }
+
+    public int getNumberOfRows() {
+        return numberOfRows;
+    }
+
+    /**
+     * Write the table for the Worker
+     * @param file destination
+     * @throws IOException
+     */
+    public void write(Path file) throws IOException {
+        long[][] rows = new long[numberOfRows][boxes.size()];
+        for (int column = 0; column < columns.size(); column++) {
+            for (int row = 0; row < numberOfRows; row++) {
+                rows[row][column] = ParameterizedConstants.encode(columns.get(column)[row]);
+            }
+        }
+        try (OutputStream out = Files.newOutputStream(file)) {
+            ConstantsTable.write(rows, out);
+        }
+    }
+
+    /**
+     * Remove the loads and put back the constants of a row in the program
+     * @param row index of the row to keep
+     */
+    public void restore(int row) {
+        if (restored) {
+            return;
+        }
+        for (BodyMutation load : loads) {
+            load.undo();
+        }
+        for (int i = 0; i < boxes.size(); i++) {
+            boxes.get(i).setValue(columns.get(i)[Math.max(0, Math.min(numberOfRows - 1, row))]);
+        }
+        restored = true;
+    }
+
+    private static String getterOf(Constant constant) {
+        if (constant instanceof IntConstant) {
+            return "getInt";
+        } else if (constant instanceof LongConstant) {
+            return "getLong";
+        } else if (constant instanceof FloatConstant) {
+            return "getFloat";
+        } else if (constant instanceof DoubleConstant) {
+            return "getDouble";
+        }
+        return null;
+    }
+
+    private static long encode(Constant constant) {
+        if (constant instanceof IntConstant) {
+            return ((IntConstant)constant).value;
+        } else if (constant instanceof LongConstant) {
+            return ((LongConstant)constant).value;
+        } else if (constant instanceof FloatConstant) {
+            return Float.floatToRawIntBits(((FloatConstant)constant).value);
+        } else {
+            return Double.doubleToRawLongBits(((DoubleConstant)constant).value);
+        }
+    }
+}
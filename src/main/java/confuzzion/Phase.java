@@ -0,0 +1,9 @@
+package confuzzion;
+
+public enum Phase {
+    MUTATION, /* Apply a random mutation to the program. */
+    INSTRUMENTATION, /* Add and remove contracts checks. */
+    EMISSION, /* Build the bytecode of all classes. */
+    EXECUTION, /* Launch the program in a thread or a JVM. */
+    REVERT /* Undo mutations after a failure or a stall. */
+}
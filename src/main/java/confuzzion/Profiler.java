@@ -0,0 +1,122 @@
+package confuzzion;
+
+import java.nio.file.Path;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Low overhead profiling of the fuzzer with Java Flight Recorder events.
+ * When no recording is started, begin methods return null and commit methods
+ * do nothing.
+ */
+public class Profiler {
+    private static volatile boolean enabled = false;
+
+    private static final Logger logger = LoggerFactory.getLogger(Profiler.class);
+
+    enum Kind {
+        MUTATION,
+        CONTRACTS,
+        EMISSION,
+        EXECUTION
+    }
+
+    /**
+     * Start a JFR recording with confuzzion events enabled
+     * @param destination file where the recording is dumped
+     * @return true if the recording has been started
+     */
+    public static boolean start(Path destination) {
+        try {
+            JfrProfiler.start(destination);
+            enabled = true;
+        } catch (Exception | LinkageError e) {
+            logger.error("Cannot start JFR recording to {}", destination, e);
+        }
+        return enabled;
+    }
+
+    /**
+     * Stop the recording and dump it to its destination
+     */
+    public static void stop() {
+        if (enabled) {
+            enabled = false;
+            JfrProfiler.stop();
+        }
+    }
+
+    public static Object beginMutation() {
+        return enabled ? JfrProfiler.begin(Kind.MUTATION) : null;
+    }
+
+    public static Object beginContracts() {
+        return enabled ? JfrProfiler.begin(Kind.CONTRACTS) : null;
+    }
+
+    public static Object beginEmission() {
+        return enabled ? JfrProfiler.begin(Kind.EMISSION) : null;
+    }
+
+    public static Object beginExecution() {
+        return enabled ? JfrProfiler.begin(Kind.EXECUTION) : null;
+    }
+
+    /**
+     * Commit a mutation event
+     * @param event    event returned by beginMutation
+     * @param action   "apply" or "undo"
+     * @param mutation the mutation applied or reverted
+     */
+    public static void commitMutation(Object event, String action, Mutation mutation) {
+        if (event != null) {
+            JfrProfiler.commitMutation(event, action, mutation.getClass().getName(), Profiler.targetOf(mutation));
+        }
+    }
+
+    /**
+     * Commit an event for a mutation that failed to apply
+     * @param event         event returned by beginMutation
+     * @param mutationClass the class of the mutation that failed
+     */
+    public static void commitFailedMutation(Object event, Class<?> mutationClass) {
+        if (event != null) {
+            JfrProfiler.commitMutation(event, "fail", mutationClass.getName(), "");
+        }
+    }
+
+    /**
+     * Commit a contracts instrumentation event
+     * @param event     event returned by beginContracts
+     * @param action    "add" or "remove"
+     * @param mutation  the mutation whose body is instrumented
+     * @param units     number of contracts checks
+     */
+    public static void commitContracts(Object event, String action, Mutation mutation, int units) {
+        if (event != null) {
+            JfrProfiler.commitContracts(event, action, Profiler.targetOf(mutation), units);
+        }
+    }
+
+    public static void commitEmission(Object event, String className, int size) {
+        if (event != null) {
+            JfrProfiler.commitEmission(event, className, size);
+        }
+    }
+
+    public static void commitExecution(Object event, Status status, boolean withJVM) {
+        if (event != null) {
+            JfrProfiler.commitExecution(event, status, withJVM);
+        }
+    }
+
+    private static String targetOf(Mutation mutation) {
+        if (mutation instanceof MethodMutation) {
+            return ((MethodMutation)mutation).getBody().getMethod().getSignature();
+        } else if (mutation instanceof ClassMutation) {
+            return ((ClassMutation)mutation).getSootClass().getName();
+        }
+        return "";
+    }
+}
@@ -5,10 +5,17 @@ import soot.SootClass;
 import soot.SootMethod;
 import soot.Type;
 
-import java.lang.Thread.UncaughtExceptionHandler;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,53 +30,45 @@ public class Program {
     private String classBaseName;
     private ArrayList<Mutant> mutants;
     private HashSet<SootMethod> executedMethods;
+    private HashMap<SootClass, Mutant> mutantsByClass;
+    private HashMap<SootClass, SelectableMethods> selectableMethods;
+    private FenwickSampler classWeights;
     private RandomGenerator rand;
+    private long emissionTime;
+    private BytecodeVerifier verifier;
+    private SharedArchive sharedArchive;
+    private DeadlineCheck deadlineCheck;
+    private InProcessExecutor executor;
+    private ArrayList<ContractCheck> contractsChecks;
+    private HashMap<SootMethod, InstrumentedBody> instrumentedBodies;
+    private ProgramCost cost;
 
     private static final Logger logger = LoggerFactory.getLogger(Program.class);
 
-    class Handler implements UncaughtExceptionHandler {
-        private Throwable e;
-
-        public Handler() {
-            e = null;
-        }
-
-        @Override
-        public void uncaughtException(Thread thread, Throwable throwable) {
-            e = throwable;
+    /**
+     * Copy of a body with contracts checks, kept while the body, the fields
+     * of the program and the contracts of the body do not change
+     */
+    private static class InstrumentedBody {
+        private Body original;
+        private long version;
+        private long fieldsVersion;
+        private ArrayList<Contract> contracts;
+        private Body copy;
+
+        public InstrumentedBody(Body original, ArrayList<Contract> contracts, Body copy) {
+            this.original = original;
+            this.version = BodyMutation.versionOf(original);
+            this.fieldsVersion = LocalIndex.getFieldsVersion();
+            this.contracts = contracts;
+            this.copy = copy;
         }
 
-        public void throwException() throws Throwable {
-            if (e != null) {
-                throw e;
-            }
-        }
-    }
-
-    class Launcher implements Runnable {
-        private ByteClassLoader loader;
-        private byte[] bytecode;
-        private String className;
-
-        public Launcher(ByteClassLoader loader, byte[] bytecode, String className) {
-            this.loader = loader;
-            this.bytecode = bytecode;
-            this.className = className;
-        }
-
-        @Override
-        public void run() {
-            try {
-                // Call method <clinit>
-                Class<?> clazz = loader.load(className, bytecode);
-                // Call method <init>
-                clazz.newInstance();
-            } catch(Throwable e) {
-                if (e instanceof InterruptedException) {
-                    Thread.currentThread().interrupt();
-                }
-                throw new RuntimeException(e);
-            }
+        public boolean isValid(Body body, ArrayList<Contract> contracts) {
+            return original == body &&
+                version == BodyMutation.versionOf(body) &&
+                fieldsVersion == LocalIndex.getFieldsVersion() &&
+                this.contracts.equals(contracts);
         }
     }
 
@@ -84,25 +83,209 @@ public class Program {
         this.rand = rand;
         mutants = new ArrayList<Mutant>();
         executedMethods = new HashSet<SootMethod>();
+        mutantsByClass = new HashMap<SootClass, Mutant>();
+        selectableMethods = new HashMap<SootClass, SelectableMethods>();
+        classWeights = new FenwickSampler();
+        verifier = null;
+        sharedArchive = null;
+        deadlineCheck = null;
+        executor = null;
+        contractsChecks = new ArrayList<ContractCheck>();
+        instrumentedBodies = new HashMap<SootMethod, InstrumentedBody>();
+        cost = new ProgramCost();
 
         if (createFirstMutant) {
             // Create first empty Mutant
             MutantGenerator generator = new MutantGenerator(rand, classBaseName + "0");
             Mutant firstMutant = generator.genEmptyClass("java.lang.Object");
-            mutants.add(firstMutant);
+            this.appendMutant(firstMutant);
             rand.addStrMutant(firstMutant.getClassName());
         }
     }
 
     public void addMutant(Mutant newMutant) {
-        mutants.add(newMutant);
+        this.appendMutant(newMutant);
         rand.addStrMutant(newMutant.getClassName());
     }
 
+    private void appendMutant(Mutant mutant) {
+        mutants.add(mutant);
+        this.indexMutant(mutant);
+        classWeights.add(this.classWeight(mutant));
+    }
+
+    /**
+     * Weight of a class for the cost-aware selection, favouring classes with
+     * a small bytecode. A class never emitted counts as the average size.
+     */
+    private double classWeight(Mutant mutant) {
+        int size = cost.getClassSize(mutant.getClassName());
+        if (size > 0) {
+            return 1.0 / size;
+        }
+        return (double)mutants.size() / Math.max(cost.getTotalSize(), 1);
+    }
+
+    private void rebuildClassWeights() {
+        classWeights.clear();
+        for (Mutant mutant : mutants) {
+            classWeights.add(this.classWeight(mutant));
+        }
+    }
+
+    /**
+     * Update the weights of the cost-aware selection for the bodies changed
+     * by a mutation, after it is applied, undone or redone
+     * @param mutation the mutation
+     */
+    public void updateWeights(Mutation mutation) {
+        for (BodyMutation bodyMutation : mutation.getBodyMutations()) {
+            this.updateWeight(bodyMutation.getBody().getMethod());
+        }
+    }
+
+    private void updateWeight(SootMethod method) {
+        SelectableMethods methods = selectableMethods.get(method.getDeclaringClass());
+        if (methods != null) {
+            methods.updateWeight(method);
+        }
+    }
+
+    /**
+     * Update the weights of all methods of the cost-aware selection, after
+     * bodies were replaced
+     */
+    public void updateWeights() {
+        for (SelectableMethods methods : selectableMethods.values()) {
+            methods.updateWeights();
+        }
+    }
+
+    /**
+     * Add a class to the indexes, with its initializers and its methods
+     * already executed
+     */
+    private void indexMutant(Mutant mutant) {
+        SootClass sClass = mutant.getSootClass();
+        mutantsByClass.put(sClass, mutant);
+        SelectableMethods methods = new SelectableMethods();
+        for (SootMethod method : sClass.getMethods()) {
+            if (executedMethods.contains(method) || method.getName().startsWith("<")) {
+                // <init> or <clinit>
+                methods.add(method);
+            }
+        }
+        selectableMethods.put(sClass, methods);
+    }
+
+    /**
+     * Verify bytecode of classes before each execution
+     * @param verifier the verifier to use or null to disable verification
+     */
+    public void setVerifier(BytecodeVerifier verifier) {
+        this.verifier = verifier;
+    }
+
+    /**
+     * @return the verifier or null if verification is disabled
+     */
+    public BytecodeVerifier getVerifier() {
+        return verifier;
+    }
+
+    /**
+     * Launch JVMs with a Class Data Sharing archive
+     * @param sharedArchive the archive to use or null
+     */
+    public void setSharedArchive(SharedArchive sharedArchive) {
+        this.sharedArchive = sharedArchive;
+    }
+
     public int getNumberOfMutants() {
         return mutants.size();
     }
 
+    /**
+     * @return the cost of the current state, updated at each emission and
+     *         by the caller after each successful execution
+     */
+    public ProgramCost getCost() {
+        return cost;
+    }
+
+    /**
+     * @return methods of the program called by other methods, that can be
+     *         mutated
+     */
+    public Set<SootMethod> getExecutedMethods() {
+        return Collections.unmodifiableSet(executedMethods);
+    }
+
+    /**
+     * Replace the methods of the program called by other methods
+     * @param methods methods returned by getExecutedMethods()
+     */
+    public void setExecutedMethods(Set<SootMethod> methods) {
+        executedMethods.clear();
+        executedMethods.addAll(methods);
+        for (Mutant mutant : mutants) {
+            this.indexMutant(mutant);
+        }
+    }
+
+    /**
+     * Mark a method as called by another method, so it can be mutated
+     * @param method a method of the program
+     * @return true if the method was not already called
+     */
+    public boolean addExecutedMethod(SootMethod method) {
+        if (!executedMethods.add(method)) {
+            return false;
+        }
+        SelectableMethods methods = selectableMethods.get(method.getDeclaringClass());
+        if (methods != null) {
+            methods.add(method);
+        }
+        return true;
+    }
+
+    public void removeExecutedMethod(SootMethod method) {
+        executedMethods.remove(method);
+        SelectableMethods methods = selectableMethods.get(method.getDeclaringClass());
+        if (methods != null && !method.getName().startsWith("<")) {
+            methods.remove(method);
+        }
+    }
+
+    /**
+     * @return the class of the program or null if the class is not part of
+     *         the program
+     */
+    public Mutant getMutant(SootClass sClass) {
+        return mutantsByClass.get(sClass);
+    }
+
+    public List<Mutant> getMutants() {
+        return mutants;
+    }
+
+    /**
+     * @return number of units in the bodies of all classes
+     */
+    public int getNumberOfUnits() {
+        int units = 0;
+        for (Mutant mutant : mutants) {
+            Iterator<SootMethod> iterMethods = mutant.getSootClass().methodIterator();
+            while (iterMethods.hasNext()) {
+                SootMethod method = iterMethods.next();
+                if (method.hasActiveBody()) {
+                    units += method.getActiveBody().getUnits().size();
+                }
+            }
+        }
+        return units;
+    }
+
     /**
      * Generate and add a new SootClass
      * @param  superTypeObject force java.lang.Object as super type, else use any other type
@@ -117,87 +300,164 @@ public class Program {
             superClass = rand.randClassName(className, false);
         }
         Mutant addedMutant = generator.genEmptyClass(superClass);
-        this.mutants.add(addedMutant);
+        this.appendMutant(addedMutant);
         return addedMutant;
     }
 
     public void removeClass(Mutant mutant) {
-        Iterator<SootMethod> iterMethods = mutant.getSootClass().methodIterator();
-        while (iterMethods.hasNext()) {
-            SootMethod method = iterMethods.next();
-            executedMethods.remove(method);
+        SootClass sClass = mutant.getSootClass();
+        SelectableMethods methods = selectableMethods.remove(sClass);
+        if (methods != null) {
+            // Only selectable methods can be executed
+            executedMethods.removeAll(methods.getMethods());
         }
-        mutants.remove(mutant);
+        mutantsByClass.remove(sClass);
+        int idMutant = mutants.indexOf(mutant);
+        mutants.remove(idMutant);
         rand.removeStrMutant(mutant.getClassName());
+        cost.removeClass(mutant.getClassName());
+        if (idMutant == classWeights.size() - 1) {
+            classWeights.removeLast();
+        } else {
+            // Ids of the next classes change
+            this.rebuildClassWeights();
+        }
     }
 
-    public ArrayList<BodyMutation> addContractsChecks(
+    /**
+     * Check contracts in the body changed by a mutation at the next
+     * emissions of the program
+     * @param contracts contracts to check
+     * @param mutation  the last mutation
+     * @return the checks to give to removeContractsChecks()
+     */
+    public ArrayList<ContractCheck> addContractsChecks(
             ArrayList<Contract> contracts,
             Mutation mutation) {
-        ArrayList<BodyMutation> mutations =
-            new ArrayList<BodyMutation>(contracts.size());
+        ArrayList<ContractCheck> checks =
+            new ArrayList<ContractCheck>(contracts.size());
 
         for (Contract contract : contracts) {
             // Apply contract check
-            BodyMutation bodyMutation = this.addContractCheck(contract, mutation);
-            if (bodyMutation != null) {
-                mutations.add(bodyMutation);
+            ContractCheck check = this.addContractCheck(contract, mutation);
+            if (check != null) {
+                checks.add(check);
             }
         }
 
-        return mutations;
+        return checks;
     }
 
     /**
-     * Remove all contracts checks that were previously applied.
-     * @param mutations an ArrayList of the BodyMutations that were done
+     * Remove all contracts checks that were previously added.
+     * @param checks the checks returned by addContractsChecks()
      */
-    public void removeContractsChecks(ArrayList<BodyMutation> mutations) {
-        // Remove contracts checks
-        for (BodyMutation mutation : mutations) {
-            mutation.undo();
+    public void removeContractsChecks(ArrayList<ContractCheck> checks) {
+        for (ContractCheck check : checks) {
+            this.removeContractCheck(check);
         }
     }
 
-    public BodyMutation addContractCheck(Contract contract, Mutation mutation) {
-        Body body = null;
-        BodyMutation bodyMutation = null;
+    public ContractCheck addContractCheck(Contract contract, Mutation mutation) {
+        SootMethod method = null;
 
         if (mutation instanceof MethodMutation) {
             // Get the body and put checks at the end
             MethodMutation mMutation = (MethodMutation)mutation;
-            body = mMutation.getBody();
+            method = mMutation.getBody().getMethod();
         } else if (mutation instanceof ClassMutation) {
             // Get the body of constructor with no parameters
             ClassMutation cMutation = (ClassMutation)mutation;
-            body = cMutation.getSootClass().getMethod("<init>", new ArrayList<Type>()).getActiveBody();
+            method = cMutation.getSootClass().getMethod("<init>", new ArrayList<Type>());
         } else if (mutation instanceof ProgramMutation) {
             // No checks with a ProgramMutation
-            return bodyMutation;
+            return null;
         } else {
             throw new IllegalArgumentException("mutation is unknown");
         }
 
-        // Apply contract check on the body
-        bodyMutation = contract.applyCheck(body);
-
-        return bodyMutation;
+        ContractCheck check = new ContractCheck(contract, method);
+        contractsChecks.add(check);
+        return check;
     }
 
-    public ArrayList<BodyMutation> addContractCheckAllBodies(Contract contract) {
-        ArrayList<BodyMutation> mutations = new ArrayList<BodyMutation>(10);
+    public ArrayList<ContractCheck> addContractCheckAllBodies(Contract contract) {
+        ArrayList<ContractCheck> checks = new ArrayList<ContractCheck>(10);
         for (Mutant mut : mutants) {
             Iterator<SootMethod> iterMethods = mut.getSootClass().methodIterator();
             while (iterMethods.hasNext()) {
-                SootMethod m = iterMethods.next();
-                mutations.add(contract.applyCheck(m.getActiveBody()));
+                ContractCheck check = new ContractCheck(contract, iterMethods.next());
+                contractsChecks.add(check);
+                checks.add(check);
             }
         }
-        return mutations;
+        return checks;
     }
 
-    public void removeContractCheck(BodyMutation mutation) {
-        mutation.undo();
+    public void removeContractCheck(ContractCheck check) {
+        contractsChecks.remove(check);
+    }
+
+    /**
+     * Replace the bodies of a class that have contracts checks by
+     * instrumented copies, until restoreBodies() is called. The copy of a
+     * body is reused at the next emissions until the body is changed.
+     * @param sClass the class to emit
+     * @return original bodies of the instrumented methods
+     */
+    private LinkedHashMap<SootMethod, Body> instrumentBodies(SootClass sClass) {
+        LinkedHashMap<SootMethod, ArrayList<Contract>> applied = new LinkedHashMap<SootMethod, ArrayList<Contract>>();
+        for (ContractCheck check : contractsChecks) {
+            SootMethod method = check.getMethod();
+            if (method.getDeclaringClass() != sClass || !method.hasActiveBody()) {
+                continue;
+            }
+            ArrayList<Contract> contracts = applied.get(method);
+            if (contracts == null) {
+                contracts = new ArrayList<Contract>(2);
+                applied.put(method, contracts);
+            }
+            // Several mutations of the same body share the checks
+            if (!contracts.contains(check.getContract())) {
+                contracts.add(check.getContract());
+            }
+        }
+
+        // Drop the copies of the bodies that are no longer checked
+        Iterator<Map.Entry<SootMethod, InstrumentedBody>> iterInstrumented = instrumentedBodies.entrySet().iterator();
+        while (iterInstrumented.hasNext()) {
+            SootMethod method = iterInstrumented.next().getKey();
+            if (!method.isDeclared() ||
+                    !mutantsByClass.containsKey(method.getDeclaringClass()) ||
+                    (method.getDeclaringClass() == sClass && !applied.containsKey(method))) {
+                iterInstrumented.remove();
+            }
+        }
+
+        LinkedHashMap<SootMethod, Body> originals = new LinkedHashMap<SootMethod, Body>();
+        for (Map.Entry<SootMethod, ArrayList<Contract>> entry : applied.entrySet()) {
+            SootMethod method = entry.getKey();
+            Body body = method.getActiveBody();
+            originals.put(method, body);
+            InstrumentedBody instrumented = instrumentedBodies.get(method);
+            if (instrumented != null && instrumented.isValid(body, entry.getValue())) {
+                method.setActiveBody(instrumented.copy);
+                continue;
+            }
+            Body copy = (Body)body.clone();
+            method.setActiveBody(copy);
+            for (Contract contract : entry.getValue()) {
+                contract.applyCheck(copy);
+            }
+            instrumentedBodies.put(method, new InstrumentedBody(body, entry.getValue(), copy));
+        }
+        return originals;
+    }
+
+    private void restoreBodies(LinkedHashMap<SootMethod, Body> originals) {
+        for (Map.Entry<SootMethod, Body> original : originals.entrySet()) {
+            original.getKey().setActiveBody(original.getValue());
+        }
     }
 
     /**
@@ -206,23 +466,17 @@ public class Program {
      */
     private SootMethod randomSootMethod() {
         SootClass sClass = this.randomSootClass();
-        ArrayList<SootMethod> methods = new ArrayList<SootMethod>();
-        Iterator<SootMethod> iterMethods = sClass.methodIterator();
-        while (iterMethods.hasNext()) {
-            SootMethod method = iterMethods.next();
-            if (executedMethods.contains(method)) {
-                methods.add(method);
-            } else if (method.getName().startsWith("<")) {
-                // <init> or <clinit>
-                methods.add(method);
-            }
-        }
-        int idMethod = rand.nextUint(methods.size());
-        return methods.get(idMethod);
+        // Favour small bodies with cost_aware
+        return selectableMethods.get(sClass).randMethod(rand, ConfuzzionOptions.v().cost_aware);
     }
 
     private SootClass randomSootClass() {
-        int idMutant = rand.nextUint(mutants.size());
+        int idMutant = 0;
+        if (ConfuzzionOptions.v().cost_aware) {
+            idMutant = classWeights.sample(rand);
+        } else {
+            idMutant = rand.nextUint(mutants.size());
+        }
         return mutants.get(idMutant).getSootClass();
     }
 
@@ -244,7 +498,7 @@ public class Program {
             break;
         case 2:
         default:
-            mutation = new CallMethodMutation(rand, method, executedMethods, mutants);
+            mutation = new CallMethodMutation(rand, method, this);
             break;
         }
         return mutation;
@@ -312,39 +566,68 @@ public class Program {
             mutation = this.randomMethodMutation(method);
             break;
         }
+        if (mutation != null) {
+            this.updateWeights(mutation);
+        }
         return mutation;
     }
 
     /**
-     * Generate and launch program within a separate Thread
-     * Warning: this will not kill threads within a while(true) loop. Use genAndLaunchWithJVM() instead
-     * @param timeout in milliseconds before interrupting the Thread
+     * Generate and launch program inside this JVM with an InProcessExecutor
+     * Bodies are instrumented with deadline checks to stop the program when
+     * the timeout is reached. A thread blocked outside of the program code
+     * that ignores interruptions is left running as a daemon thread.
+     * @param timeout in milliseconds before cancelling the whole program
      * @throws Throwable can throw any type of Throwable or InterruptedException
      */
     public void genAndLaunch(long timeout) throws Throwable {
-        ByteClassLoader loader =
-                new ByteClassLoader(Thread.currentThread().getContextClassLoader());
-        // Load and instantiate (call <init>) all other mutants
-        for (int i = mutants.size() - 1; i >= 0; i--) {
+        emissionTime = 0;
+        ArrayList<String> classNames = new ArrayList<String>(mutants.size());
+        ArrayList<byte[]> bytecodes = new ArrayList<byte[]>(mutants.size());
+        for (int i = 0; i < mutants.size(); i++) {
             Mutant mut = mutants.get(i);
             if (logger.isDebugEnabled()) {
                 logger.debug("===Class {}===", mut.getClassName());
                 logger.debug(mut.toString());
             }
-            byte[] array = mut.toClass();
-            Launcher launcher = new Launcher(loader, array, mut.getClassName());
-            Thread thread = new Thread(launcher);
-            Handler handler = new Handler();
-            thread.setUncaughtExceptionHandler(handler);
-            thread.start();
-            thread.join(timeout);
-            if (thread.isAlive()) {
-                thread.interrupt();
-                thread.stop();
-                throw new InterruptedException();
+            long startEmission = System.nanoTime();
+            classNames.add(mut.getClassName());
+            bytecodes.add(this.emit(mut, i, true));
+            emissionTime += System.nanoTime() - startEmission;
+        }
+        if (executor == null) {
+            executor = new InProcessExecutor(ConfuzzionOptions.v().virtual_threads,
+                    ConfuzzionOptions.v().layered_loaders);
+        }
+        executor.execute(classNames, bytecodes, timeout);
+    }
+
+    /**
+     * Add deadline checks to the active bodies of a class, the instrumented
+     * copies included
+     * @return the mutations to undo after the emission
+     */
+    private ArrayList<BodyMutation> addDeadlineChecks(SootClass sClass) {
+        if (deadlineCheck == null) {
+            deadlineCheck = new DeadlineCheck();
+        }
+        ArrayList<BodyMutation> mutations = new ArrayList<BodyMutation>(10);
+        Iterator<SootMethod> iterMethods = sClass.methodIterator();
+        while (iterMethods.hasNext()) {
+            SootMethod m = iterMethods.next();
+            if (m.hasActiveBody()) {
+                mutations.add(deadlineCheck.applyCheck(m.getActiveBody()));
             }
-            handler.throwException();
         }
+        return mutations;
+    }
+
+    /**
+     * @return the executor used by genAndLaunch() or null before the first
+     *         execution
+     */
+    public InProcessExecutor getExecutor() {
+        return executor;
     }
 
     /**
@@ -355,30 +638,128 @@ public class Program {
      * @throws Throwable
      */
     public void genAndLaunchWithJVM(String javahome, String folder, long timeout) throws Throwable {
-        this.saveAsClassFiles(folder);
-        MutantGenerator gen = new MutantGenerator(rand, "Main");
-        Mutant mut = gen.genMainLoader(mutants);
-        mut.toClassFile(folder);
-        Util.startJVM(javahome, folder, mut.getClassName(), timeout);
+        List<String> classNames = this.genClassFiles(folder);
+        Process process = this.startJVM(javahome, folder, classNames);
+        Util.waitJVM(process, timeout);
+    }
+
+    /**
+     * Generate class files of the program
+     * @param folder destination folder that already exists
+     * @return names of the classes in instantiation order
+     * @throws VerificationException if the verifier rejects a class
+     */
+    public List<String> genClassFiles(String folder) throws VerificationException {
+        long startEmission = System.nanoTime();
+        ArrayList<String> classNames = new ArrayList<String>(mutants.size());
+        for (int i = 0; i < mutants.size(); i++) {
+            Mutant mutant = mutants.get(i);
+            mutant.toClassFile(folder, this.emit(mutant, i, false));
+            classNames.add(mutant.getClassName());
+        }
+        emissionTime = System.nanoTime() - startEmission;
+        return classNames;
+    }
+
+    /**
+     * Start a separate JVM on class files generated by genClassFiles()
+     * without waiting for it
+     * @param javahome target JVM to launch
+     * @param folder folder containing the class files
+     * @param classNames names returned by genClassFiles()
+     * @return the started JVM, see Util.waitJVM()
+     * @throws IOException
+     */
+    public Process startJVM(String javahome, String folder, List<String> classNames) throws IOException {
+        return Util.launchJVM(javahome, folder, classNames, sharedArchive);
+    }
+
+    /**
+     * Start a separate JVM on class files generated by genClassFiles() that
+     * load constants from a ConstantsTable
+     * @param constants file written by ParameterizedConstants.write()
+     * @see Program#startJVM(String, String, List)
+     */
+    public Process startJVM(String javahome, String folder, List<String> classNames, Path constants) throws IOException {
+        return Util.launchJVM(javahome, folder, classNames, sharedArchive, constants);
+    }
+
+    /**
+     * Build the bytecode of a class, with contracts checks, and verify it if
+     * a verifier is active
+     * @param mut the class to build
+     * @param idMutant index of the class in the program
+     * @param withDeadlineChecks add deadline checks for an execution inside
+     *        this JVM
+     * @return bytecode of the class
+     * @throws VerificationException if the verifier rejects the class
+     */
+    private byte[] emit(Mutant mut, int idMutant, boolean withDeadlineChecks) throws VerificationException {
+        byte[] bytecode = null;
+        LinkedHashMap<SootMethod, Body> originals = this.instrumentBodies(mut.getSootClass());
+        try {
+            // Added after the contracts checks and undone before the bodies
+            // are restored, so the instrumented copies are kept unchanged
+            ArrayList<BodyMutation> deadlineChecks = new ArrayList<BodyMutation>(0);
+            if (withDeadlineChecks) {
+                deadlineChecks = this.addDeadlineChecks(mut.getSootClass());
+            }
+            try {
+                bytecode = mut.toClass();
+            } finally {
+                for (BodyMutation check : deadlineChecks) {
+                    check.undo();
+                }
+            }
+        } finally {
+            this.restoreBodies(originals);
+        }
+        if (bytecode.length != cost.getClassSize(mut.getClassName())) {
+            cost.newClassSize(mut.getClassName(), bytecode.length);
+            classWeights.set(idMutant, 1.0 / bytecode.length);
+        }
+        if (verifier != null && verifier.isActive()) {
+            verifier.verify(bytecode);
+        }
+        return bytecode;
     }
 
     /**
-     * Save all classes of this program
+     * Time spent building bytecode during the last call to genAndLaunch or
+     * genAndLaunchWithJVM
+     * @return duration in nanoseconds
+     */
+    public long getEmissionTime() {
+        return emissionTime;
+    }
+
+    /**
+     * Save all classes of this program, with contracts checks
      * @param folder destination
      */
     public void saveAsClassFiles(String folder) {
         for (Mutant mut : mutants) {
-            mut.toClassFile(folder);
+            LinkedHashMap<SootMethod, Body> originals = this.instrumentBodies(mut.getSootClass());
+            try {
+                mut.toClassFile(folder);
+            } finally {
+                this.restoreBodies(originals);
+            }
         }
     }
 
     /**
-     * Save all classes as Jimple source files
+     * Save all classes as Jimple source files, with contracts checks
      * @param folder destination
      */
     public void saveAsJimpleFiles(String folder) {
         for (Mutant mut : mutants) {
-            mut.toJimpleFile(folder);
+            LinkedHashMap<SootMethod, Body> originals = this.instrumentBodies(mut.getSootClass());
+            try {
+                mut.toJimpleFile(folder);
+            } finally {
+                this.restoreBodies(originals);
+            }
         }
     }
 
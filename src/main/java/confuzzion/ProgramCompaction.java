@@ -0,0 +1,185 @@
+package confuzzion;
+
+import soot.Body;
+import soot.Local;
+import soot.SootMethod;
+import soot.Unit;
+import soot.Value;
+import soot.ValueBox;
+import soot.jimple.AssignStmt;
+import soot.jimple.Constant;
+import soot.jimple.InvokeExpr;
+import soot.jimple.Jimple;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remove code that successful mutations left behind: assignments of
+ * locals and constants to locals that are never used and locals that are
+ * never used. Calls whose result is never used are kept, without assigning
+ * the result. The program is compacted in copies of its bodies, so undo()
+ * puts back the original bodies if the compacted program does not execute as
+ * before.
+ * Mutations applied before a compaction reference the original bodies: they
+ * cannot be undone once the compaction is kept.
+ */
+public class ProgramCompaction {
+    private LinkedHashMap<SootMethod, Body> originals;
+    private LinkedHashMap<SootMethod, Body> compacted;
+    private int removedUnits;
+    private int removedLocals;
+
+    /**
+     * Compact all bodies of a program
+     * @param prog the program
+     */
+    public ProgramCompaction(Program prog) {
+        originals = new LinkedHashMap<SootMethod, Body>();
+        compacted = new LinkedHashMap<SootMethod, Body>();
+        removedUnits = 0;
+        removedLocals = 0;
+
+        for (Mutant mutant : prog.getMutants()) {
+            Iterator<SootMethod> iterMethods = mutant.getSootClass().methodIterator();
+            while (iterMethods.hasNext()) {
+                SootMethod method = iterMethods.next();
+                if (!method.hasActiveBody() || !this.isCompactable(method.getActiveBody())) {
+                    continue;
+                }
+                Body body = method.getActiveBody();
+                Body copy = (Body)body.clone();
+                method.setActiveBody(copy);
+                originals.put(method, body);
+                compacted.put(method, copy);
+                this.compact(copy);
+            }
+        }
+    }
+
+    /**
+     * @return true if no code was removed
+     */
+    public boolean isEmpty() {
+        return originals.isEmpty();
+    }
+
+    public int getRemovedUnits() {
+        return removedUnits;
+    }
+
+    public int getRemovedLocals() {
+        return removedLocals;
+    }
+
+    /**
+     * Put back the bodies of the program before the compaction
+     */
+    public void undo() {
+        for (Map.Entry<SootMethod, Body> original : originals.entrySet()) {
+            original.getKey().setActiveBody(original.getValue());
+        }
+    }
+
+    /**
+     * Put back the compacted bodies after undo()
+     */
+    public void redo() {
+        for (Map.Entry<SootMethod, Body> copy : compacted.entrySet()) {
+            copy.getKey().setActiveBody(copy.getValue());
+        }
+    }
+
+    /**
+     * Remove dead code until no unit and no local can be removed
+     */
+    private void compact(Body body) {
+        boolean changed = true;
+        while (changed) {
+            HashSet<Local> usedLocals = ProgramCompaction.usedLocals(body);
+            ArrayList<Unit> deadUnits = new ArrayList<Unit>();
+            for (Unit unit : body.getUnits()) {
+                if (ProgramCompaction.isDead(unit, usedLocals)) {
+                    deadUnits.add(unit);
+                }
+            }
+            for (Unit unit : deadUnits) {
+                Value value = ((AssignStmt)unit).getRightOp();
+                if (value instanceof InvokeExpr) {
+                    // The call is what the program exercises: only its
+                    // result is dropped
+                    body.getUnits().swapWith(unit, Jimple.v().newInvokeStmt(value));
+                } else {
+                    // Jumps to the unit go to the next one
+                    body.getUnits().remove(unit);
+                    removedUnits++;
+                }
+            }
+            changed = !deadUnits.isEmpty();
+        }
+
+        HashSet<Local> usedLocals = ProgramCompaction.usedLocals(body);
+        for (ValueBox box : body.getDefBoxes()) {
+            if (box.getValue() instanceof Local) {
+                usedLocals.add((Local)box.getValue());
+            }
+        }
+        Iterator<Local> iterLocals = body.getLocals().iterator();
+        while (iterLocals.hasNext()) {
+            if (!usedLocals.contains(iterLocals.next())) {
+                iterLocals.remove();
+                removedLocals++;
+            }
+        }
+    }
+
+    /**
+     * @return true if compact() would remove something from the body
+     */
+    private boolean isCompactable(Body body) {
+        HashSet<Local> usedLocals = ProgramCompaction.usedLocals(body);
+        for (Unit unit : body.getUnits()) {
+            if (ProgramCompaction.isDead(unit, usedLocals)) {
+                return true;
+            }
+        }
+        for (ValueBox box : body.getDefBoxes()) {
+            if (box.getValue() instanceof Local) {
+                usedLocals.add((Local)box.getValue());
+            }
+        }
+        for (Local local : body.getLocals()) {
+            if (!usedLocals.contains(local)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static HashSet<Local> usedLocals(Body body) {
+        HashSet<Local> usedLocals = new HashSet<Local>();
+        for (ValueBox box : body.getUseBoxes()) {
+            if (box.getValue() instanceof Local) {
+                usedLocals.add((Local)box.getValue());
+            }
+        }
+        return usedLocals;
+    }
+
+    private static boolean isDead(Unit unit, HashSet<Local> usedLocals) {
+        if (!(unit instanceof AssignStmt)) {
+            return false;
+        }
+        AssignStmt assign = (AssignStmt)unit;
+        if (!(assign.getLeftOp() instanceof Local) || usedLocals.contains(assign.getLeftOp())) {
+            return false;
+        }
+        Value value = assign.getRightOp();
+        return value instanceof Local
+            || value instanceof Constant
+            || value instanceof InvokeExpr;
+    }
+}
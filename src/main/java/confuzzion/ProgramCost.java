@@ -0,0 +1,133 @@
+package confuzzion;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Cost of the current state of a program: moving average of the duration of
+ * its successful executions, emission included, and size of the last
+ * bytecode emitted for each class. The average is recorded for each depth of
+ * the stack of mutations: the state at half the current depth, from which
+ * the last half of the stack was built, is the baseline of the current one.
+ */
+public class ProgramCost {
+    private double averageNanos;
+    private int samples;
+    // Average at each depth of the stack, NaN if unknown
+    private ArrayList<Double> depthAverages;
+    private HashMap<String, Integer> classSizes;
+    private long totalSize;
+
+    private static final double SMOOTHING = 0.1;
+    private static final int MIN_SAMPLES = 10;
+
+    public ProgramCost() {
+        averageNanos = 0.0;
+        samples = 0;
+        depthAverages = new ArrayList<Double>();
+        classSizes = new HashMap<String, Integer>();
+        totalSize = 0;
+    }
+
+    /**
+     * Add the duration of a successful execution
+     * @param nanos emission and execution time in nanoseconds
+     * @param depth number of mutations of the stack in the executed state
+     */
+    public synchronized void newExecution(long nanos, int depth) {
+        if (samples == 0) {
+            averageNanos = nanos;
+        } else {
+            averageNanos += SMOOTHING * (nanos - averageNanos);
+        }
+        samples++;
+        if (samples >= MIN_SAMPLES) {
+            // Deeper states have been reverted
+            while (depthAverages.size() > depth + 1) {
+                depthAverages.remove(depthAverages.size() - 1);
+            }
+            while (depthAverages.size() <= depth) {
+                depthAverages.add(Double.NaN);
+            }
+            depthAverages.set(depth, averageNanos);
+        }
+    }
+
+    /**
+     * Record the size of a class after its emission
+     * @param className name of the class
+     * @param bytes     length of its bytecode
+     */
+    public synchronized void newClassSize(String className, int bytes) {
+        Integer previous = classSizes.put(className, bytes);
+        totalSize += bytes - (previous == null ? 0 : previous);
+    }
+
+    /**
+     * Forget the size of a class removed from the program
+     * @param className name of the class
+     */
+    public synchronized void removeClass(String className) {
+        Integer previous = classSizes.remove(className);
+        totalSize -= previous == null ? 0 : previous;
+    }
+
+    /**
+     * @return size of the last bytecode of the class or 0 if it has never
+     *         been emitted
+     */
+    public synchronized int getClassSize(String className) {
+        Integer size = classSizes.get(className);
+        return size == null ? 0 : size;
+    }
+
+    /**
+     * @return sum of the sizes of the classes
+     */
+    public synchronized long getTotalSize() {
+        return totalSize;
+    }
+
+    /**
+     * @return average duration of an execution in nanoseconds
+     */
+    public synchronized double getAverageNanos() {
+        return averageNanos;
+    }
+
+    /**
+     * @param factor tolerated slowdown
+     * @param depth  number of mutations of the stack
+     * @return true if the current state is slower than factor times the
+     *         state at half its depth
+     */
+    public synchronized boolean isTooExpensive(double factor, int depth) {
+        if (samples < MIN_SAMPLES) {
+            return false;
+        }
+        for (int i = Math.min(depth / 2, depthAverages.size() - 1); i >= 0; i--) {
+            double baseline = depthAverages.get(i);
+            if (!Double.isNaN(baseline)) {
+                return averageNanos > factor * baseline;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Forget the average duration after the state of the program changed,
+     * for example after mutations are reverted
+     */
+    public synchronized void resetAverage() {
+        averageNanos = 0.0;
+        samples = 0;
+    }
+
+    /**
+     * Forget the averages of all depths, when the stack is cleared
+     */
+    public synchronized void resetDepths() {
+        this.resetAverage();
+        depthAverages.clear();
+    }
+}
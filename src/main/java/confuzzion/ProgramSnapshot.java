@@ -0,0 +1,173 @@
+package confuzzion;
+
+import soot.Body;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootField;
+import soot.SootMethod;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * State of a program: its classes, their fields and methods, the bodies of
+ * the methods and the methods already executed.
+ * Bodies are shared copy-on-write: the snapshot only references the current
+ * bodies, and a MethodMutation copies a shared body before changing it. So a
+ * snapshot does not depend on the size of the bodies, and it can be restored
+ * any number of times, for example to fork the exploration from a state.
+ * Taking and restoring a snapshot still copy the lists of classes, fields
+ * and methods: both cost O(classes + fields + methods), not O(1).
+ * Mutations applied before the snapshot still reference the bodies that
+ * restore() puts back.
+ */
+public class ProgramSnapshot {
+    private ArrayList<Mutant> mutants;
+    private LinkedHashMap<SootClass, ArrayList<SootField>> fields;
+    private LinkedHashMap<SootClass, ArrayList<SootMethod>> methods;
+    private LinkedHashMap<SootMethod, Body> bodies;
+    private HashSet<SootMethod> executedMethods;
+
+    /**
+     * Bodies referenced by snapshots, with the generation of the last
+     * snapshot that references them, forgotten with the snapshots
+     */
+    private static final Map<Body, Long> sharedBodies =
+        Collections.synchronizedMap(new WeakHashMap<Body, Long>());
+    private static volatile long generation = 0;
+
+    /**
+     * Take a snapshot of the current state of a program
+     * @param prog the program
+     */
+    public ProgramSnapshot(Program prog) {
+        mutants = new ArrayList<Mutant>(prog.getMutants());
+        fields = new LinkedHashMap<SootClass, ArrayList<SootField>>();
+        methods = new LinkedHashMap<SootClass, ArrayList<SootMethod>>();
+        bodies = new LinkedHashMap<SootMethod, Body>();
+        executedMethods = new HashSet<SootMethod>(prog.getExecutedMethods());
+        long snapshotGeneration = ++generation;
+
+        for (Mutant mutant : mutants) {
+            SootClass sClass = mutant.getSootClass();
+            fields.put(sClass, new ArrayList<SootField>(sClass.getFields()));
+            methods.put(sClass, new ArrayList<SootMethod>(sClass.getMethods()));
+            for (SootMethod method : sClass.getMethods()) {
+                if (method.hasActiveBody()) {
+                    Body body = method.getActiveBody();
+                    bodies.put(method, body);
+                    sharedBodies.put(body, snapshotGeneration);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copy the body of a method if it is shared with a snapshot, before it
+     * is changed.
+     * The copy has new locals and units, and the mutations applied before
+     * the snapshot still reference the locals and units of the shared body,
+     * which are no longer in the method. So a mutation applied before a
+     * snapshot must never be undone or redone while the snapshot exists: it
+     * would change the state kept by the snapshot, or a body that is no
+     * longer in the program. Such mutations are dropped without undo() when a
+     * snapshot is restored. BodyMutation enforces it with
+     * checkUnchangedSince().
+     * @param method a method about to be mutated
+     */
+    public static void copyOnWrite(SootMethod method) {
+        if (method.hasActiveBody() && sharedBodies.containsKey(method.getActiveBody())) {
+            method.setActiveBody((Body)method.getActiveBody().clone());
+        }
+    }
+
+    /**
+     * @return the number of snapshots taken so far
+     */
+    public static long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Fail if a body has been taken by a snapshot since a generation
+     * @param body the body a mutation is about to undo or redo
+     * @param since value of getGeneration() when the mutation was created
+     * @throws IllegalStateException if the mutation was applied before a
+     *         snapshot of the body
+     */
+    public static void checkUnchangedSince(Body body, long since) {
+        Long shared = sharedBodies.get(body);
+        if (shared != null && shared > since) {
+            throw new IllegalStateException("Mutation of " + body.getMethod().getSignature() +
+                " applied before a snapshot of its body cannot be undone or redone");
+        }
+    }
+
+    /**
+     * @return number of bodies referenced by the snapshot
+     */
+    public int size() {
+        return bodies.size();
+    }
+
+    /**
+     * Put the program back in the state of the snapshot. The mutations
+     * applied after the snapshot must be discarded without undo().
+     * @param prog the program given to the constructor
+     */
+    public void restore(Program prog) {
+        HashSet<Mutant> kept = new HashSet<Mutant>(mutants);
+        for (Mutant mutant : new ArrayList<Mutant>(prog.getMutants())) {
+            if (!kept.contains(mutant)) {
+                prog.removeClass(mutant);
+                Scene.v().removeClass(mutant.getSootClass());
+            }
+        }
+        HashSet<Mutant> current = new HashSet<Mutant>(prog.getMutants());
+        for (Mutant mutant : mutants) {
+            if (!current.contains(mutant)) {
+                Scene.v().addClass(mutant.getSootClass());
+                prog.addMutant(mutant);
+            }
+        }
+
+        for (Map.Entry<SootClass, ArrayList<SootField>> entry : fields.entrySet()) {
+            SootClass sClass = entry.getKey();
+            HashSet<SootField> keptFields = new HashSet<SootField>(entry.getValue());
+            for (SootField field : new ArrayList<SootField>(sClass.getFields())) {
+                if (!keptFields.contains(field)) {
+                    sClass.removeField(field);
+                }
+            }
+            for (SootField field : entry.getValue()) {
+                if (!sClass.declaresField(field.getSubSignature())) {
+                    sClass.addField(field);
+                }
+            }
+        }
+        LocalIndex.fieldsChanged();
+        for (Map.Entry<SootClass, ArrayList<SootMethod>> entry : methods.entrySet()) {
+            SootClass sClass = entry.getKey();
+            HashSet<SootMethod> keptMethods = new HashSet<SootMethod>(entry.getValue());
+            for (SootMethod method : new ArrayList<SootMethod>(sClass.getMethods())) {
+                if (!keptMethods.contains(method)) {
+                    sClass.removeMethod(method);
+                }
+            }
+            for (SootMethod method : entry.getValue()) {
+                if (!sClass.declaresMethod(method.getSubSignature())) {
+                    sClass.addMethod(method);
+                }
+            }
+        }
+        for (Map.Entry<SootMethod, Body> entry : bodies.entrySet()) {
+            entry.getKey().setActiveBody(entry.getValue());
+        }
+
+        prog.setExecutedMethods(executedMethods);
+    }
+}
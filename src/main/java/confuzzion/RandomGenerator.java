@@ -1,5 +1,6 @@
 package confuzzion;
 
+import soot.Body;
 import soot.BooleanType;
 import soot.ByteType;
 import soot.CharType;
@@ -10,7 +11,6 @@ import soot.Local;
 import soot.LongType;
 import soot.Modifier;
 import soot.RefType;
-import soot.Scene;
 import soot.ShortType;
 import soot.SootClass;
 import soot.SootField;
@@ -24,6 +24,7 @@ import soot.util.Chain;
 
 import java.lang.Math;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
@@ -46,7 +47,10 @@ public class RandomGenerator {
 
     private List<String> strClasses;
     private ArrayList<String> strMutants;
+    private HashSet<String> setClasses;
+    private HashSet<String> setMutants;
     private ArrayList<MethodComplexity> callableMethods;
+    private ConstantDictionary dictionary;
     private long remainingCalls;
 
     private static final Logger logger = LoggerFactory.getLogger(RandomGenerator.class);
@@ -68,6 +72,8 @@ public class RandomGenerator {
         this.counter = 0;
         strClasses = new ArrayList<String>();
         strMutants = new ArrayList<String>();
+        setClasses = new HashSet<String>();
+        setMutants = new HashSet<String>();
         callableMethods = new ArrayList<MethodComplexity>();
         remainingCalls = 0;
 
@@ -79,10 +85,13 @@ public class RandomGenerator {
         if (callableMethods.size() == 0) {
             throw new RuntimeException("No callable methods has been found inside any target classes");
         }
+
+        dictionary = new ConstantDictionary(strClasses);
     }
 
     public void addStrClass(String className) {
         strClasses.add(className);
+        setClasses.add(className);
         SootClass sClass = Util.getOrLoadSootClass(className);
         sClass.checkLevel(SootClass.SIGNATURES);
         Iterator<SootMethod> iterMethods = sClass.methodIterator();
@@ -191,10 +200,12 @@ public class RandomGenerator {
 
     public void addStrMutant(String className) {
         strMutants.add(className);
+        setMutants.add(className);
     }
 
     public void removeStrMutant(String className) {
         strMutants.remove(className);
+        setMutants.remove(className);
     }
 
     public String getClassName() {
@@ -280,13 +291,21 @@ public class RandomGenerator {
     }
 
     /**
-     * Randomly generate a constant for the appropriate type
+     * Randomly generate a constant for the appropriate type, from the small
+     * pools or from the constants of the target classes
      * @param  type Type of the constant
      * @return      Value that is a constant of appropriate type
      */
     public Value randConstant(Type type) {
         Value val = null;
 
+        if (this.nextBoolean()) {
+            val = this.randDictionaryConstant(type);
+            if (val != null) {
+                return val;
+            }
+        }
+
         if (type == BooleanType.v()) {
             val = soot.jimple.IntConstant.v(this.getIntFromPool(poolBoolean));
         } else if (type == ByteType.v()) {
@@ -310,6 +329,28 @@ public class RandomGenerator {
         return val;
     }
 
+    /**
+     * Draw a number of the appropriate type from the constants of the target
+     * classes
+     * @param  type primitive type of the constant
+     * @return      Value that is a constant or null
+     */
+    private Value randDictionaryConstant(Type type) {
+        if (type == IntType.v()) {
+            return soot.jimple.IntConstant.v(dictionary.randInt(this));
+        } else if (type == LongType.v()) {
+            return soot.jimple.LongConstant.v(dictionary.randLong(this));
+        } else if (type == FloatType.v()) {
+            return soot.jimple.FloatConstant.v(dictionary.randFloat(this));
+        } else if (type == DoubleType.v()) {
+            return soot.jimple.DoubleConstant.v(dictionary.randDouble(this));
+        } else if (type == ShortType.v()) {
+            return soot.jimple.IntConstant.v((short)dictionary.randInt(this));
+        }
+        // Pools of boolean, byte and char already cover their values
+        return null;
+    }
+
     /**
      * Select a random class string
      * @param className
@@ -337,11 +378,32 @@ public class RandomGenerator {
     }
 
     /**
-     * Randomly generate a StringConstant from field/methods/classes names
+     * Randomly generate a StringConstant from string literals or
+     * field/methods/classes names of target classes, or names of generated
+     * classes
      * @param className
      * @return
      */
     public Value randString(String className) {
+        String constant = null;
+        switch (this.nextUint(4)) {
+        case 0:
+            constant = dictionary.randLiteral(this);
+            break;
+        case 1:
+            constant = dictionary.randMemberName(this);
+            break;
+        case 2:
+            constant = dictionary.randClassName(this);
+            break;
+        default:
+            // Names of generated classes change
+            break;
+        }
+        if (constant != null) {
+            return StringConstant.v(constant);
+        }
+
         // Choose a random class
         SootClass sootClass = Util.getOrLoadSootClass(this.randClassName(className, true));
         String value = null;
@@ -506,21 +568,12 @@ public class RandomGenerator {
 
     /**
      * Randomly choose a local of the specified type
-     * @param locals
+     * @param body
      * @param type
      * @return
      */
-    public Local randLocal(Chain<Local> locals, Type type) {
-        ArrayList<Local> localRefs = new ArrayList<Local>(10);
-        for (Local loc : locals) {
-            Type locType = loc.getType();
-            if (locType == type ||
-                    (locType instanceof RefType &&
-                            type instanceof RefType &&
-                            locType.merge(type, Scene.v()) == type)) {
-                localRefs.add(loc);
-            }
-        }
+    public Local randLocal(Body body, Type type) {
+        ArrayList<Local> localRefs = LocalIndex.of(body).getCompatibleLocals(type);
         if (localRefs.size() <= 0) {
             return null;
         }
@@ -529,19 +582,29 @@ public class RandomGenerator {
 
     /**
      * Randomly choose a local of type RefType that is a Mutant class or a target class
-     * @param  locals chain of locals
+     * @param  body body of the locals
      * @param  canBeAnyRefType if true then can return any RefType Local provided, not only a target class or Mutant class type
      * @return Local of type RefType
      */
-    public Local randLocalRef(Chain<Local> locals, boolean canBeAnyRefType) {
+    public Local randLocalRef(Body body, boolean canBeAnyRefType) {
+        ArrayList<Local> refLocals = LocalIndex.of(body).getRefLocals();
+        if (refLocals.size() <= 0) {
+            return null;
+        }
+        if (canBeAnyRefType) {
+            return refLocals.get(this.nextUint(refLocals.size()));
+        }
+        // Most locals have a useful type: try a few random locals first
+        for (int i = 0; i < 8; i++) {
+            Local loc = refLocals.get(this.nextUint(refLocals.size()));
+            if (this.isUsefulRef(loc)) {
+                return loc;
+            }
+        }
         ArrayList<Local> localRefs = new ArrayList<Local>(10);
-        for (Local loc : locals) {
-            Type type = loc.getType();
-            if (type instanceof RefType) {
-                String className = ((RefType)type).getClassName();
-                if (canBeAnyRefType || strClasses.contains(className) || strMutants.contains(className)) {
-                    localRefs.add(loc);
-                }
+        for (Local loc : refLocals) {
+            if (this.isUsefulRef(loc)) {
+                localRefs.add(loc);
             }
         }
         if (localRefs.size() <= 0) {
@@ -549,4 +612,12 @@ public class RandomGenerator {
         }
         return localRefs.get(this.nextUint(localRefs.size()));
     }
+
+    /**
+     * @return true if the local is of a target class or a Mutant class
+     */
+    private boolean isUsefulRef(Local loc) {
+        String className = ((RefType)loc.getType()).getClassName();
+        return setClasses.contains(className) || setMutants.contains(className);
+    }
 }
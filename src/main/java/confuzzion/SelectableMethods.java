@@ -0,0 +1,102 @@
+package confuzzion;
+
+import soot.SootMethod;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Methods of a class that mutations can change: initializers and methods
+ * already called by the program. Each method has a dense id, its position
+ * in the list, so adding, removing and picking a method are O(1). The weight
+ * of each method, favouring small bodies, is kept in a FenwickSampler for
+ * the cost-aware selection.
+ */
+public class SelectableMethods {
+    private ArrayList<SootMethod> methods;
+    private HashMap<SootMethod, Integer> ids;
+    private FenwickSampler weights;
+
+    public SelectableMethods() {
+        methods = new ArrayList<SootMethod>();
+        ids = new HashMap<SootMethod, Integer>();
+        weights = new FenwickSampler();
+    }
+
+    public void add(SootMethod method) {
+        if (!ids.containsKey(method)) {
+            ids.put(method, methods.size());
+            methods.add(method);
+            weights.add(SelectableMethods.weight(method));
+        }
+    }
+
+    /**
+     * Remove a method, the last method takes its id
+     * @param method the method to remove
+     */
+    public void remove(SootMethod method) {
+        Integer id = ids.remove(method);
+        if (id == null) {
+            return;
+        }
+        SootMethod last = methods.remove(methods.size() - 1);
+        if (last != method) {
+            methods.set(id, last);
+            ids.put(last, id);
+            weights.set(id, weights.get(methods.size()));
+        }
+        weights.removeLast();
+    }
+
+    /**
+     * Update the weight of a method after its body changed
+     * @param method a method, ignored if it is not selectable
+     */
+    public void updateWeight(SootMethod method) {
+        Integer id = ids.get(method);
+        if (id != null) {
+            weights.set(id, SelectableMethods.weight(method));
+        }
+    }
+
+    /**
+     * Update the weights of all methods, after bodies were replaced
+     */
+    public void updateWeights() {
+        for (int id = 0; id < methods.size(); id++) {
+            weights.set(id, SelectableMethods.weight(methods.get(id)));
+        }
+    }
+
+    public SootMethod get(int id) {
+        return methods.get(id);
+    }
+
+    public int size() {
+        return methods.size();
+    }
+
+    public List<SootMethod> getMethods() {
+        return methods;
+    }
+
+    /**
+     * Pick a method
+     * @param rand     the random source
+     * @param weighted favour small bodies, else pick uniformly
+     * @return the method
+     */
+    public SootMethod randMethod(RandomGenerator rand, boolean weighted) {
+        if (weighted) {
+            return methods.get(weights.sample(rand));
+        }
+        return methods.get(rand.nextUint(methods.size()));
+    }
+
+    private static double weight(SootMethod method) {
+        int units = method.hasActiveBody() ? method.getActiveBody().getUnits().size() : 0;
+        return 1.0 / (1 + units);
+    }
+}
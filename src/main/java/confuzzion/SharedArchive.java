@@ -0,0 +1,115 @@
+package confuzzion;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Class Data Sharing archive of the Worker and target classes for the target
+ * JVM. Launching each program with this archive avoids loading and verifying
+ * the same classes in every new JVM.
+ * The archive is dumped with only the runtime jar on the class path, so the
+ * runtime jar must be the first entry of the class path at execution.
+ */
+public class SharedArchive {
+    private Path archive;
+
+    private static final long DUMP_TIMEOUT = 60000;
+    private static final Logger logger = LoggerFactory.getLogger(SharedArchive.class);
+
+    private SharedArchive(Path archive) {
+        this.archive = archive;
+    }
+
+    /**
+     * Create an archive for the target JVM. A dynamic archive is tried first
+     * (JDK 13+), then a static archive from a class list (JDK 10+).
+     * @param javahome target JVM
+     * @param runtimePath jar containing the Worker
+     * @param folder where to write the archive
+     * @param targets target classes to preload
+     * @return the archive or null if the target JVM cannot create it
+     */
+    public static SharedArchive create(String javahome, String runtimePath, Path folder, List<String> targets) {
+        Path archive = Paths.get(folder.toString(), "confuzzion.jsa");
+        Path classList = Paths.get(folder.toString(), "confuzzion.classlist");
+        Path log = Paths.get(folder.toString(), "cds.txt");
+        try {
+            Files.createDirectories(folder);
+            if (!SharedArchive.run(javahome, log,
+                    Arrays.asList("-XX:ArchiveClassesAtExit=" + archive), runtimePath, targets)) {
+                if (!SharedArchive.run(javahome, log,
+                        Arrays.asList("-Xshare:off", "-XX:DumpLoadedClassList=" + classList), runtimePath, targets) ||
+                        !SharedArchive.run(javahome, log,
+                                Arrays.asList("-Xshare:dump",
+                                        "-XX:SharedClassListFile=" + classList,
+                                        "-XX:SharedArchiveFile=" + archive), runtimePath, null)) {
+                    logger.warn("Cannot create a shared archive for {}, see {}", javahome, log);
+                    return null;
+                }
+            }
+            if (!Files.exists(archive)) {
+                logger.warn("Shared archive {} has not been created, see {}", archive, log);
+                return null;
+            }
+            SharedArchive sharedArchive = new SharedArchive(archive);
+            // Check that the target JVM accepts the archive
+            if (!SharedArchive.run(javahome, log, sharedArchive.getJVMOptions(), runtimePath, targets)) {
+                logger.warn("Shared archive {} is rejected by {}, see {}", archive, javahome, log);
+                return null;
+            }
+            logger.info("Shared archive: {}", archive);
+            return sharedArchive;
+        } catch (IOException | InterruptedException e) {
+            logger.warn("Cannot create a shared archive for {}", javahome, e);
+            return null;
+        }
+    }
+
+    /**
+     * @return options to add to the command line of the target JVM
+     */
+    public List<String> getJVMOptions() {
+        return Arrays.asList("-XX:SharedArchiveFile=" + archive, "-Xshare:auto");
+    }
+
+    /**
+     * Launch the Worker in preload mode
+     * @param targets classes to preload or null to only launch the JVM
+     * @return true if the JVM exited normally
+     */
+    private static boolean run(String javahome, Path log, List<String> jvmOptions, String runtimePath, List<String> targets)
+            throws IOException, InterruptedException {
+        ArrayList<String> command = new ArrayList<String>();
+        command.add(Paths.get(javahome, "bin", "java").toString());
+        command.addAll(jvmOptions);
+        command.add("-cp");
+        command.add(runtimePath);
+        if (targets != null) {
+            command.add(Worker.class.getName());
+            command.add(Worker.PRELOAD);
+            command.addAll(targets);
+        } else {
+            command.add("-version");
+        }
+        logger.info("Command: {}", command);
+        ProcessBuilder processBuilder = new ProcessBuilder(command);
+        processBuilder.redirectErrorStream(true);
+        processBuilder.redirectOutput(ProcessBuilder.Redirect.appendTo(new File(log.toString())));
+        Process process = processBuilder.start();
+        if (!process.waitFor(DUMP_TIMEOUT, TimeUnit.MILLISECONDS)) {
+            process.destroyForcibly();
+            return false;
+        }
+        return process.exitValue() == 0;
+    }
+}
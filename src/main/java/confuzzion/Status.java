@@ -6,5 +6,6 @@ public enum Status {
     NOTEXECUTED, /* Mutation succeed but the code is not executed. */
     CRASHED, /* Mutation success but execution crashed. */
     INTERRUPTED, /* Mutation succeed but the execution has been interrupted. */
-    VIOLATES /* Mutation and execution success, but violates a contract. */
+    VIOLATES, /* Mutation and execution success, but violates a contract. */
+    REJECTED /* Mutation success but the bytecode verification failed, no execution. */
 }
@@ -1,21 +1,45 @@
 package confuzzion;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
 import java.util.TimerTask;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 public class StatusScreen extends TimerTask {
     private long totalMutations;
     private long totalExecutions;
     private long mutationsFromLastSecond;
     private long executionsFromLastSecond;
+    private long mutationsLastSecond;
+    private long executionsLastSecond;
     private ArrayList<Long> successMutations;
     private ArrayList<Long> failedMutations;
     private ArrayList<Long> crashedMutations;
     private ArrayList<Long> contractViolations;
+    private ArrayList<Long> rejectedMutations;
     private ArrayList<Class<?>> mutations;
+    private long[] phaseTimes;
+    private LinkedHashMap<String, Long> counters;
     private boolean stalled;
+    private long stalledTime;
     private int mutationsStackSize;
     private long time;
+    private boolean printScreen;
+    private Path statsFile;
+
+    private static final long STATS_FILE_LIMIT = 16L * 1024 * 1024;
+    private static final Logger logger = LoggerFactory.getLogger(StatusScreen.class);
 
     private static String template =
         "\033[H\033[2J" +
@@ -23,8 +47,9 @@ public class StatusScreen extends TimerTask {
         "            %4d:%02d:%02d |%n" +
         "%10d total execs | %10d total mutations%n" +
         "%10d     execs/s | %10d     mutations/s%n" +
+        "%10.2f execs/accept |%n" +
         "               %7s | %10d    stacked muts%n%n" +
-        "       Mutation type |    Success |      Fails |    Crashed | Violations |%n";
+        "       Mutation type |    Success |      Fails |    Crashed | Violations |   Rejected |%n";
 
     public StatusScreen() {
         this.mutations = new ArrayList<Class<?>>();
@@ -32,9 +57,32 @@ public class StatusScreen extends TimerTask {
         failedMutations = new ArrayList<Long>();
         crashedMutations = new ArrayList<Long>();
         contractViolations = new ArrayList<Long>();
+        rejectedMutations = new ArrayList<Long>();
+        phaseTimes = new long[Phase.values().length];
+        counters = new LinkedHashMap<String, Long>();
         stalled = false;
+        stalledTime = 0;
         mutationsStackSize = 0;
         time = 0;
+        printScreen = true;
+        statsFile = null;
+    }
+
+    /**
+     * Enable or disable printing the screen on standard output at each refresh
+     * @param printScreen false to only refresh statistics
+     */
+    public synchronized void setPrintScreen(boolean printScreen) {
+        this.printScreen = printScreen;
+    }
+
+    /**
+     * Append a JSON line with all statistics to this file at each refresh.
+     * The file is rotated when it becomes too large.
+     * @param statsFile destination file or null to disable
+     */
+    public synchronized void setStatsFile(Path statsFile) {
+        this.statsFile = statsFile;
     }
 
     public synchronized void newMutation(Class<?> mutation,
@@ -48,6 +96,7 @@ public class StatusScreen extends TimerTask {
             failedMutations.add(0L);
             crashedMutations.add(0L);
             contractViolations.add(0L);
+            rejectedMutations.add(0L);
         }
 
         mutationsFromLastSecond++;
@@ -77,11 +126,46 @@ public class StatusScreen extends TimerTask {
             lViolations++;
             contractViolations.set(index, lViolations);
             break;
+        case REJECTED:
+            Long lRejected = rejectedMutations.get(index);
+            lRejected++;
+            rejectedMutations.set(index, lRejected);
+            break;
         default:
             break;
         }
     }
 
+    /**
+     * Add time spent in a phase of the main loop
+     * @param phase the phase
+     * @param nanos duration in nanoseconds
+     */
+    public synchronized void newPhaseTime(Phase phase, long nanos) {
+        phaseTimes[phase.ordinal()] += nanos;
+    }
+
+    /**
+     * Add delta to a named counter, created with value 0 if necessary.
+     * Counters are printed on the screen and exported with the other
+     * statistics.
+     * @param name  counter name in snake_case
+     * @param delta value to add
+     */
+    public synchronized void addCounter(String name, long delta) {
+        Long value = counters.get(name);
+        counters.put(name, value == null ? delta : value + delta);
+    }
+
+    /**
+     * Set the value of a named counter
+     * @param name  counter name in snake_case
+     * @param value new value
+     */
+    public synchronized void setCounter(String name, long value) {
+        counters.put(name, value);
+    }
+
     public synchronized boolean isStalled() {
         boolean stalledValue = stalled;
         stalled = false;
@@ -92,39 +176,210 @@ public class StatusScreen extends TimerTask {
         mutationsStackSize = size;
     }
 
+    /**
+     * Called each second: refresh statistics, print the screen and append
+     * a line to the stats file
+     */
     public synchronized void run() {
-        System.out.print(this.toString());
+        this.refresh();
+        if (printScreen) {
+            System.out.print(this.toString());
+        }
+        if (statsFile != null) {
+            this.writeStats();
+        }
     }
 
-    @Override
-    public String toString() {
+    /**
+     * Count executions that are not attributed to a single mutation
+     * @param numberOfExecutions
+     */
+    public synchronized void newExecutions(long numberOfExecutions) {
+        executionsFromLastSecond += numberOfExecutions;
+    }
+
+    /**
+     * @return average number of executions for each mutation added to the
+     *         stack
+     */
+    private double getExecutionsPerAcceptedMutation() {
+        long accepted = 0;
+        for (Long success : successMutations) {
+            accepted += success;
+        }
+        return accepted == 0 ? 0.0 : (double)totalExecutions / accepted;
+    }
+
+    private void refresh() {
         totalMutations += mutationsFromLastSecond;
         totalExecutions += executionsFromLastSecond;
         if (mutationsFromLastSecond == 0) {
             stalled = true;
+            stalledTime++;
         }
         time++;
+        mutationsLastSecond = mutationsFromLastSecond;
+        executionsLastSecond = executionsFromLastSecond;
+        mutationsFromLastSecond = 0;
+        executionsFromLastSecond = 0;
+    }
+
+    private void writeStats() {
+        byte[] line = (this.toJson() + "\n").getBytes(StandardCharsets.UTF_8);
+        try {
+            if (Files.exists(statsFile) && Files.size(statsFile) + line.length > STATS_FILE_LIMIT) {
+                Path old = Paths.get(statsFile.toString() + ".1");
+                Files.move(statsFile, old, StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.write(statsFile, line, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            logger.error("Writing file {}", statsFile, e);
+        }
+    }
+
+    /**
+     * Statistics as a single line JSON object
+     * @return JSON object
+     */
+    public synchronized String toJson() {
+        StringBuilder str = new StringBuilder();
+        str.append(String.format(Locale.ROOT, "{\"timestamp\":%d,\"time\":%d,\"total_execs\":%d,\"total_mutations\":%d," +
+                "\"execs_per_sec\":%d,\"mutations_per_sec\":%d,\"execs_per_accepted_mutation\":%.2f,\"stalled\":%b,\"stalled_seconds\":%d,\"stacked_mutations\":%d",
+                System.currentTimeMillis(),
+                time,
+                totalExecutions,
+                totalMutations,
+                executionsLastSecond,
+                mutationsLastSecond,
+                this.getExecutionsPerAcceptedMutation(),
+                stalled,
+                stalledTime,
+                mutationsStackSize));
+        str.append(",\"phases_ns\":{");
+        for (Phase phase : Phase.values()) {
+            if (phase.ordinal() > 0) {
+                str.append(',');
+            }
+            str.append(String.format(Locale.ROOT, "\"%s\":%d", phase.name().toLowerCase(Locale.ROOT), phaseTimes[phase.ordinal()]));
+        }
+        str.append("},\"mutations\":[");
+        for (int i = 0; i < mutations.size(); i++) {
+            if (i > 0) {
+                str.append(',');
+            }
+            str.append(String.format(Locale.ROOT, "{\"type\":\"%s\",\"success\":%d,\"fails\":%d,\"crashed\":%d,\"violations\":%d,\"rejected\":%d}",
+                    mutations.get(i).getSimpleName(),
+                    successMutations.get(i),
+                    failedMutations.get(i),
+                    crashedMutations.get(i),
+                    contractViolations.get(i),
+                    rejectedMutations.get(i)));
+        }
+        str.append("],\"counters\":{");
+        boolean first = true;
+        for (Map.Entry<String, Long> counter : counters.entrySet()) {
+            if (!first) {
+                str.append(',');
+            }
+            first = false;
+            str.append(String.format(Locale.ROOT, "\"%s\":%d", counter.getKey(), counter.getValue()));
+        }
+        str.append("}}");
+        return str.toString();
+    }
+
+    /**
+     * Statistics in the Prometheus text exposition format
+     * @return Prometheus metrics
+     */
+    public synchronized String toPrometheus() {
+        StringBuilder str = new StringBuilder();
+        str.append("# TYPE confuzzion_uptime_seconds gauge\n");
+        str.append(String.format(Locale.ROOT, "confuzzion_uptime_seconds %d%n", time));
+        str.append("# TYPE confuzzion_executions_total counter\n");
+        str.append(String.format(Locale.ROOT, "confuzzion_executions_total %d%n", totalExecutions));
+        str.append("# TYPE confuzzion_mutations_total counter\n");
+        str.append(String.format(Locale.ROOT, "confuzzion_mutations_total %d%n", totalMutations));
+        str.append("# TYPE confuzzion_executions_per_second gauge\n");
+        str.append(String.format(Locale.ROOT, "confuzzion_executions_per_second %d%n", executionsLastSecond));
+        str.append("# TYPE confuzzion_mutations_per_second gauge\n");
+        str.append(String.format(Locale.ROOT, "confuzzion_mutations_per_second %d%n", mutationsLastSecond));
+        str.append("# TYPE confuzzion_executions_per_accepted_mutation gauge\n");
+        str.append(String.format(Locale.ROOT, "confuzzion_executions_per_accepted_mutation %.2f%n",
+                this.getExecutionsPerAcceptedMutation()));
+        str.append("# TYPE confuzzion_stalled_seconds_total counter\n");
+        str.append(String.format(Locale.ROOT, "confuzzion_stalled_seconds_total %d%n", stalledTime));
+        str.append("# TYPE confuzzion_stacked_mutations gauge\n");
+        str.append(String.format(Locale.ROOT, "confuzzion_stacked_mutations %d%n", mutationsStackSize));
+        str.append("# TYPE confuzzion_phase_seconds_total counter\n");
+        for (Phase phase : Phase.values()) {
+            str.append(String.format(Locale.ROOT, "confuzzion_phase_seconds_total{phase=\"%s\"} %.6f%n",
+                    phase.name().toLowerCase(Locale.ROOT),
+                    phaseTimes[phase.ordinal()] / 1e9));
+        }
+        str.append("# TYPE confuzzion_mutation_results_total counter\n");
+        for (int i = 0; i < mutations.size(); i++) {
+            String name = mutations.get(i).getSimpleName();
+            str.append(String.format(Locale.ROOT, "confuzzion_mutation_results_total{type=\"%s\",status=\"success\"} %d%n",
+                    name, successMutations.get(i)));
+            str.append(String.format(Locale.ROOT, "confuzzion_mutation_results_total{type=\"%s\",status=\"fails\"} %d%n",
+                    name, failedMutations.get(i)));
+            str.append(String.format(Locale.ROOT, "confuzzion_mutation_results_total{type=\"%s\",status=\"crashed\"} %d%n",
+                    name, crashedMutations.get(i)));
+            str.append(String.format(Locale.ROOT, "confuzzion_mutation_results_total{type=\"%s\",status=\"violations\"} %d%n",
+                    name, contractViolations.get(i)));
+            str.append(String.format(Locale.ROOT, "confuzzion_mutation_results_total{type=\"%s\",status=\"rejected\"} %d%n",
+                    name, rejectedMutations.get(i)));
+        }
+        for (Map.Entry<String, Long> counter : counters.entrySet()) {
+            str.append(String.format(Locale.ROOT, "# TYPE confuzzion_%s untyped%n", counter.getKey()));
+            str.append(String.format(Locale.ROOT, "confuzzion_%s %d%n", counter.getKey(), counter.getValue()));
+        }
+        return str.toString();
+    }
+
+    @Override
+    public synchronized String toString() {
         String str = String.format(StatusScreen.template,
             time / 3600,
             (time % 3600) / 60,
             time % 60,
             totalExecutions,
             totalMutations,
-            executionsFromLastSecond,
-            mutationsFromLastSecond,
+            executionsLastSecond,
+            mutationsLastSecond,
+            this.getExecutionsPerAcceptedMutation(),
             stalled ? "STALLED" : "",
             mutationsStackSize);
         for (int i = 0; i < mutations.size(); i++) {
-            str += String.format("%20s | %10d | %10d | %10d | %10d |%n",
+            str += String.format("%20s | %10d | %10d | %10d | %10d | %10d |%n",
                     mutations.get(i).getSimpleName(),
                     successMutations.get(i),
                     failedMutations.get(i),
                     crashedMutations.get(i),
-                    contractViolations.get(i));
+                    contractViolations.get(i),
+                    rejectedMutations.get(i));
         }
 
-        mutationsFromLastSecond = 0;
-        executionsFromLastSecond = 0;
+        long allPhases = 0;
+        for (long phaseTime : phaseTimes) {
+            allPhases += phaseTime;
+        }
+        str += String.format("%n               Phase |   Time (s) |    Share %% |%n");
+        for (Phase phase : Phase.values()) {
+            long phaseTime = phaseTimes[phase.ordinal()];
+            str += String.format("%20s | %10d | %10.1f |%n",
+                    phase.name().toLowerCase(),
+                    phaseTime / 1000000000L,
+                    allPhases == 0 ? 0.0 : 100.0 * phaseTime / allPhases);
+        }
+
+        if (!counters.isEmpty()) {
+            str += String.format("%n");
+            for (Map.Entry<String, Long> counter : counters.entrySet()) {
+                str += String.format("%20s | %10d |%n", counter.getKey(), counter.getValue());
+            }
+        }
         return str;
     }
 }
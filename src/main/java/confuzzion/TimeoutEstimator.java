@@ -0,0 +1,97 @@
+package confuzzion;
+
+import java.util.Arrays;
+
+/**
+ * Estimate the timeout of the next execution from the duration of the last
+ * executions that did not time out. The timeout is a high percentile of the
+ * durations multiplied by a factor, between a floor and the configured
+ * timeout.
+ */
+public class TimeoutEstimator {
+    private long maxTimeout;
+    private long minTimeout;
+    private double percentile;
+    private double factor;
+    private long[] samples;
+    // Samples of the window in ascending order
+    private long[] sorted;
+    private int nextSample;
+    private int numberOfSamples;
+    private long timeout;
+
+    private static final int WINDOW = 256;
+    private static final int MIN_SAMPLES = 5;
+
+    /**
+     * Constructor
+     * @param maxTimeout configured timeout in milliseconds, used until enough
+     *                   executions have been measured
+     * @param minTimeout floor of the timeout in milliseconds
+     * @param percentile percentile of the durations (between 0 and 1)
+     * @param factor     multiplier applied to the percentile
+     */
+    public TimeoutEstimator(long maxTimeout, long minTimeout, double percentile, double factor) {
+        this.maxTimeout = maxTimeout;
+        this.minTimeout = Math.min(minTimeout, maxTimeout);
+        this.percentile = percentile;
+        this.factor = factor;
+        this.samples = new long[WINDOW];
+        this.sorted = new long[WINDOW];
+        this.nextSample = 0;
+        this.numberOfSamples = 0;
+        this.timeout = maxTimeout;
+    }
+
+    /**
+     * Add the duration of an execution that finished before the timeout
+     * @param nanos duration in nanoseconds
+     */
+    public void newExecutionTime(long nanos) {
+        if (numberOfSamples == samples.length) {
+            // The oldest sample leaves the window
+            int removed = Arrays.binarySearch(sorted, 0, numberOfSamples, samples[nextSample]);
+            System.arraycopy(sorted, removed + 1, sorted, removed, numberOfSamples - removed - 1);
+            numberOfSamples--;
+        }
+        int inserted = Arrays.binarySearch(sorted, 0, numberOfSamples, nanos);
+        if (inserted < 0) {
+            inserted = -inserted - 1;
+        }
+        System.arraycopy(sorted, inserted, sorted, inserted + 1, numberOfSamples - inserted);
+        sorted[inserted] = nanos;
+        numberOfSamples++;
+        samples[nextSample] = nanos;
+        nextSample = (nextSample + 1) % samples.length;
+        if (numberOfSamples >= MIN_SAMPLES) {
+            long estimate = (long)(this.getPercentile(percentile) * factor / 1000000);
+            timeout = Math.max(minTimeout, Math.min(maxTimeout, estimate));
+        }
+    }
+
+    /**
+     * @param p percentile between 0 and 1
+     * @return duration in nanoseconds or 0 without any sample
+     */
+    public long getPercentile(double p) {
+        if (numberOfSamples == 0) {
+            return 0;
+        }
+        int index = (int)Math.ceil(p * numberOfSamples) - 1;
+        return sorted[Math.max(0, Math.min(numberOfSamples - 1, index))];
+    }
+
+    /**
+     * @return timeout of the next execution in milliseconds
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @return configured timeout in milliseconds
+     */
+    public long getMaxTimeout() {
+        return maxTimeout;
+    }
+}
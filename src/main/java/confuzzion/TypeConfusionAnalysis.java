@@ -0,0 +1,107 @@
+package confuzzion;
+
+import soot.Body;
+import soot.Local;
+import soot.RefType;
+import soot.Scene;
+import soot.Type;
+import soot.Unit;
+import soot.Value;
+import soot.jimple.ArrayRef;
+import soot.jimple.CastExpr;
+import soot.jimple.CaughtExceptionRef;
+import soot.jimple.DefinitionStmt;
+import soot.jimple.FieldRef;
+import soot.jimple.IdentityRef;
+import soot.jimple.InvokeExpr;
+import soot.toolkits.exceptions.PedanticThrowAnalysis;
+import soot.toolkits.graph.ExceptionalUnitGraph;
+import soot.toolkits.scalar.ArraySparseSet;
+import soot.toolkits.scalar.FlowSet;
+import soot.toolkits.scalar.ForwardFlowAnalysis;
+
+/**
+ * Intra-procedural analysis of the reference locals that may hold a value of
+ * another type than their static type. A local is tainted when it is defined
+ * by a field, an array element, the return of a method, a parameter, or by a
+ * copy of a tainted local or of a value whose type is not assignable to the
+ * local (an unsafe AssignMutation). Allocations, constants, casts and caught
+ * exceptions are safe.
+ */
+public class TypeConfusionAnalysis extends ForwardFlowAnalysis<Unit, FlowSet<Local>> {
+    /**
+     * Analyze a body
+     * @param body the body, with all its units
+     */
+    public TypeConfusionAnalysis(Body body) {
+        super(new ExceptionalUnitGraph(body, PedanticThrowAnalysis.v()));
+        this.doAnalysis();
+    }
+
+    /**
+     * @param local a local of the body
+     * @param unit  a unit of the body
+     * @return true if the local may be confused before the unit
+     */
+    public boolean isTainted(Local local, Unit unit) {
+        return this.getFlowBefore(unit).contains(local);
+    }
+
+    @Override
+    protected void flowThrough(FlowSet<Local> in, Unit unit, FlowSet<Local> out) {
+        in.copy(out);
+        if (!(unit instanceof DefinitionStmt)) {
+            return;
+        }
+        DefinitionStmt def = (DefinitionStmt)unit;
+        if (!(def.getLeftOp() instanceof Local)) {
+            return;
+        }
+        Local local = (Local)def.getLeftOp();
+        out.remove(local);
+        if (local.getType() instanceof RefType && this.isUnsafe(in, def.getRightOp(), local.getType())) {
+            out.add(local);
+        }
+    }
+
+    private boolean isUnsafe(FlowSet<Local> in, Value value, Type type) {
+        if (value instanceof CaughtExceptionRef || value instanceof CastExpr) {
+            return false;
+        }
+        if (value instanceof FieldRef
+                || value instanceof ArrayRef
+                || value instanceof InvokeExpr
+                || value instanceof IdentityRef) {
+            return true;
+        }
+        if (value instanceof Local && in.contains((Local)value)) {
+            return true;
+        }
+        try {
+            return !Scene.v().getOrMakeFastHierarchy().canStoreType(value.getType(), type);
+        } catch (RuntimeException e) {
+            // Unknown type in the hierarchy
+            return true;
+        }
+    }
+
+    @Override
+    protected FlowSet<Local> newInitialFlow() {
+        return new ArraySparseSet<Local>();
+    }
+
+    @Override
+    protected FlowSet<Local> entryInitialFlow() {
+        return new ArraySparseSet<Local>();
+    }
+
+    @Override
+    protected void merge(FlowSet<Local> in1, FlowSet<Local> in2, FlowSet<Local> out) {
+        in1.union(in2, out);
+    }
+
+    @Override
+    protected void copy(FlowSet<Local> source, FlowSet<Local> dest) {
+        source.copy(dest);
+    }
+}
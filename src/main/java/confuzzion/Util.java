@@ -3,12 +3,15 @@ package confuzzion;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
@@ -18,9 +21,11 @@ import soot.Scene;
 import soot.SootClass;
 
 public class Util {
-    public static final int ERRORCODE_VIOLATION = 200;
+    public static final int ERRORCODE_VIOLATION = WorkerResult.ERRORCODE_VIOLATION;
 
     private static HashMap<String, String> childMap;
+    private static String runtimePath = null;
+    private static String agentPath = null;
     private static final Logger logger = LoggerFactory.getLogger(Util.class);
 
     static {
@@ -65,26 +70,143 @@ public class Util {
         outputStream.close();
     }
 
-    public static void startJVM(String javahome, String classpath, String className, long timeoutMiliseconds) throws Exception {
+    /**
+     * Execute classes in a new JVM with the Worker
+     * @param javahome target JVM to launch
+     * @param classpath folder containing the classes
+     * @param classNames classes to initialize and instantiate, in order
+     * @param timeoutMiliseconds delay before killing the JVM
+     * @param archive Class Data Sharing archive to use or null
+     * @return the result sent by the Worker, or null if the JVM did not send
+     *         any result but exited normally
+     * @throws ContractCheckException if a contract check failed
+     * @throws WorkerException if the program failed with another exception
+     * @throws InterruptedException if the timeout is reached
+     */
+    public static WorkerResult startJVM(String javahome, String classpath, List<String> classNames, long timeoutMiliseconds, SharedArchive archive) throws Exception {
+        Process process = Util.launchJVM(javahome, classpath, classNames, archive);
+        return Util.waitJVM(process, timeoutMiliseconds);
+    }
+
+    /**
+     * Start a new JVM with the Worker without waiting for it
+     * @param javahome target JVM to launch
+     * @param classpath folder containing the classes
+     * @param classNames classes to initialize and instantiate, in order
+     * @param archive Class Data Sharing archive to use or null
+     * @return the started process
+     * @throws IOException
+     */
+    public static Process launchJVM(String javahome, String classpath, List<String> classNames, SharedArchive archive) throws IOException {
+        return Util.launchJVM(javahome, classpath, classNames, archive, null);
+    }
+
+    /**
+     * Start a new JVM with the Worker without waiting for it
+     * @param javahome target JVM to launch
+     * @param classpath folder containing the classes
+     * @param classNames classes to initialize and instantiate, in order
+     * @param archive Class Data Sharing archive to use or null
+     * @param constants file written by ConstantsTable.write() or null
+     * @return the started process
+     * @throws IOException
+     */
+    public static Process launchJVM(String javahome, String classpath, List<String> classNames, SharedArchive archive, Path constants) throws IOException {
         String path = Paths.get(javahome, "bin", "java").toString();
-        ProcessBuilder processBuilder = new ProcessBuilder(path, "-cp", classpath + ":" + Util.getJarPath(), className);
+        ArrayList<String> command = new ArrayList<String>();
+        command.add(path);
+        if (archive != null) {
+            command.addAll(archive.getJVMOptions());
+        }
+        if (ConfuzzionOptions.v().agent) {
+            command.add("-javaagent:" + Util.getAgentPath() + "=" + String.join(",", classNames));
+        }
+        command.add("-cp");
+        // The runtime comes first to match the class path of the shared archive
+        command.add(Util.getRuntimePath() + ":" + classpath);
+        command.add(Worker.class.getName());
+        if (constants != null) {
+            command.add(Worker.CONSTANTS);
+            command.add(constants.toString());
+        }
+        command.addAll(classNames);
+        ProcessBuilder processBuilder = new ProcessBuilder(command);
         if (logger.isInfoEnabled()) {
             logger.info("Command: {}", processBuilder.command());
         }
-        processBuilder.redirectOutput(new File(Paths.get(classpath, "stdout.txt").toString()));
         processBuilder.redirectError(new File(Paths.get(classpath, "stderr.txt").toString()));
         Process process = processBuilder.start();
-        process.waitFor(timeoutMiliseconds, TimeUnit.MILLISECONDS);
+        process.getOutputStream().close();
+        return process;
+    }
+
+    /**
+     * Wait for a JVM started with launchJVM and read its result
+     * @param process the JVM
+     * @param timeoutMiliseconds delay before killing the JVM
+     * @return the result sent by the Worker, or null if the JVM did not send
+     *         any result but exited normally
+     * @throws ContractCheckException if a contract check failed
+     * @throws WorkerException if the program failed with another exception
+     * @throws InterruptedException if the timeout is reached
+     */
+    public static WorkerResult waitJVM(Process process, long timeoutMiliseconds) throws Exception {
+        return Util.checkResult(Util.readResult(process, timeoutMiliseconds));
+    }
+
+    /**
+     * Wait for a JVM started with launchJVM and read its result without
+     * checking its outcome
+     * @param process the JVM
+     * @param timeoutMiliseconds delay before killing the JVM
+     * @return the result sent by the Worker, or null if the JVM did not send
+     *         any result but exited normally
+     * @throws ContractCheckException if the JVM exited with the violation
+     *         error code without any result
+     * @throws InterruptedException if the timeout is reached
+     */
+    public static WorkerResult readResult(Process process, long timeoutMiliseconds) throws Exception {
+        process.waitFor(Math.max(timeoutMiliseconds, 0), TimeUnit.MILLISECONDS);
         if (process.isAlive()) {
             process.destroyForcibly();
             throw new InterruptedException();
         }
-        int errorCode = process.exitValue();
-        if (errorCode != 0) {
-            if (errorCode == Util.ERRORCODE_VIOLATION) {
-                throw new ContractCheckException();
+        WorkerResult result = null;
+        try (InputStream results = process.getInputStream()) {
+            result = WorkerResult.read(results);
+        }
+        if (result == null) {
+            // No result (JVM crash, System.exit in the program...)
+            int errorCode = process.exitValue();
+            if (errorCode != 0) {
+                if (errorCode == Util.ERRORCODE_VIOLATION) {
+                    throw new ContractCheckException();
+                }
+                throw new RuntimeException("Error code " + errorCode);
             }
-            throw new RuntimeException("Error code " + errorCode);
+        }
+        return result;
+    }
+
+    /**
+     * Throw the exception corresponding to the outcome of a result
+     * @param result result read by readResult() or null
+     * @return the result if the execution succeeded
+     * @throws ContractCheckException if a contract check failed
+     * @throws WorkerException if the program failed with another exception
+     */
+    public static WorkerResult checkResult(WorkerResult result) throws Exception {
+        if (result == null) {
+            return result;
+        }
+        switch (result.getOutcome()) {
+        case VIOLATION:
+            throw new ContractCheckException();
+        case EXCEPTION:
+            throw new WorkerException(result);
+        case SUCCESS:
+        default:
+            return result;
         }
     }
 
@@ -99,4 +221,53 @@ public class Util {
             return null;
         }
     }
+
+    /**
+     * Path of the classes needed by executed programs: the runtime jar
+     * (classifier "runtime") next to the current jar if it exists, else the
+     * current jar
+     * @return path to put on the class path of executed programs
+     */
+    public static synchronized String getRuntimePath() {
+        if (runtimePath == null) {
+            runtimePath = Util.getJarPath();
+            Path jarPath = Paths.get(runtimePath);
+            String jarName = jarPath.getFileName().toString();
+            if (jarName.endsWith("-jar-with-dependencies.jar")) {
+                Path runtimeJar = jarPath.resolveSibling(
+                        jarName.replace("-jar-with-dependencies.jar", "-runtime.jar"));
+                if (Files.isRegularFile(runtimeJar)) {
+                    runtimePath = runtimeJar.toString();
+                } else {
+                    logger.warn("Runtime jar {} not found, using {}", runtimeJar, runtimePath);
+                }
+            }
+            logger.info("Runtime path: {}", runtimePath);
+        }
+        return runtimePath;
+    }
+
+    /**
+     * Path of the agent jar (classifier "agent") next to the current jar,
+     * with only the ContractAgent and a relocated ASM
+     * @return path of the agent jar or null if it does not exist
+     */
+    public static synchronized String getAgentPath() {
+        if (agentPath == null) {
+            Path jarPath = Paths.get(Util.getJarPath());
+            String jarName = jarPath.getFileName().toString();
+            if (!jarName.endsWith("-jar-with-dependencies.jar")) {
+                return null;
+            }
+            Path agentJar = jarPath.resolveSibling(
+                    jarName.replace("-jar-with-dependencies.jar", "-agent.jar"));
+            if (!Files.isRegularFile(agentJar)) {
+                logger.warn("Agent jar {} not found", agentJar);
+                return null;
+            }
+            agentPath = agentJar.toString();
+            logger.info("Agent path: {}", agentPath);
+        }
+        return agentPath;
+    }
 }
@@ -0,0 +1,48 @@
+package confuzzion;
+
+import soot.Body;
+import soot.Local;
+import soot.SootField;
+
+/**
+ * A contract checked on the reference locals and fields of a body. Several
+ * value contracts are applied in a single traversal of the body by a
+ * CompositeContract.
+ */
+public interface ValueContract extends Contract {
+    /**
+     * Start the checks of a body
+     * @param  body     the body to check
+     * @param  mutation the changes shared by all contracts of the body
+     * @return          the checks of this contract for the body
+     */
+    public ValueChecks newChecks(Body body, BodyMutation mutation);
+
+    /**
+     * Checks of a value contract in a body
+     */
+    public interface ValueChecks {
+        /**
+         * Add the checks of a reference local of the body
+         * @param local the local to check
+         */
+        public void checkLocal(Local local);
+
+        /**
+         * Add the checks of a reference field of the declaring class
+         * @param field the field
+         * @param value a local containing the value of the field
+         */
+        public void checkField(SootField field, Local value);
+
+        /**
+         * @return true if checkField() must be called for each field
+         */
+        public boolean checksFields();
+
+        /**
+         * Called after the last check of the body
+         */
+        public void finish();
+    }
+}
@@ -0,0 +1,22 @@
+package confuzzion;
+
+/**
+ * Class VerificationException is thrown when a generated class is predicted
+ * to be rejected by the JVM at load time
+ */
+public class VerificationException extends Exception {
+    /**
+     * Generated serialVersionUID
+     */
+    private static final long serialVersionUID = 4912386207751935210L;
+    private String className;
+
+    public VerificationException(String className, String reason) {
+        super(className + ": " + reason);
+        this.className = className;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+}
@@ -0,0 +1,7 @@
+package confuzzion;
+
+public enum VerificationPolicy {
+    OFF, /* No verification before executing programs. */
+    SAFE, /* Verify programs, except methods with unsafe assignments. */
+    ALL /* Verify all programs. */
+}
@@ -0,0 +1,230 @@
+package confuzzion;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ * Entry point of the JVM launched to execute a program.
+ * Each class given as argument is initialized (&lt;clinit&gt;) then
+ * instantiated (&lt;init&gt;), in order. The outcome is sent to the fuzzer
+ * as a WorkerResult on the standard output; the output of the program is
+ * redirected to the standard error.
+ * With a ConstantsTable, the program is executed once for each row, each
+ * time in a new class loader, until a contract check fails.
+ * This class is part of the runtime: it must not depend on Soot or any
+ * library.
+ */
+public class Worker {
+    public static final String PRELOAD = "--preload";
+    public static final String CONSTANTS = "--constants";
+
+    private String[] classNames;
+    private HashSet<String> programClasses;
+    private long[][] constants;
+    private String currentClass;
+    private String currentMethod;
+
+    /**
+     * Load the classes of the program from the class path of the parent in
+     * this loader, to execute their initializers again
+     */
+    static class ProgramLoader extends ClassLoader {
+        private HashSet<String> programClasses;
+
+        public ProgramLoader(ClassLoader parent, HashSet<String> programClasses) {
+            super(parent);
+            this.programClasses = programClasses;
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!programClasses.contains(name)) {
+                return super.loadClass(name, resolve);
+            }
+            synchronized (this.getClassLoadingLock(name)) {
+                Class<?> clazz = this.findLoadedClass(name);
+                if (clazz == null) {
+                    byte[] bytecode = this.readClass(name);
+                    clazz = this.defineClass(name, bytecode, 0, bytecode.length);
+                }
+                if (resolve) {
+                    this.resolveClass(clazz);
+                }
+                return clazz;
+            }
+        }
+
+        private byte[] readClass(String name) throws ClassNotFoundException {
+            try (InputStream in = this.getParent().getResourceAsStream(name.replace('.', '/') + ".class")) {
+                if (in == null) {
+                    throw new ClassNotFoundException(name);
+                }
+                ByteArrayOutputStream bytecode = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                int length;
+                while ((length = in.read(buffer)) > 0) {
+                    bytecode.write(buffer, 0, length);
+                }
+                return bytecode.toByteArray();
+            } catch (IOException e) {
+                throw new ClassNotFoundException(name, e);
+            }
+        }
+    }
+
+    public Worker(String[] classNames) {
+        this.classNames = classNames;
+        this.programClasses = new HashSet<String>(Arrays.asList(classNames));
+        this.constants = null;
+        this.currentClass = "";
+        this.currentMethod = "";
+    }
+
+    /**
+     * @param constants rows of the ConstantsTable or null
+     */
+    public void setConstants(long[][] constants) {
+        this.constants = constants;
+    }
+
+    /**
+     * Initialize and instantiate all classes, with each row of constants
+     * @return the outcome of the first execution that violates a contract,
+     *         else of the last execution
+     */
+    public WorkerResult run() {
+        ClassLoader loader = Worker.class.getClassLoader();
+        if (constants == null || constants.length == 0) {
+            return this.run(loader);
+        }
+        WorkerResult result = null;
+        for (int row = 0; row < constants.length; row++) {
+            ConstantsTable.setRow(constants[row]);
+            result = this.run(new ProgramLoader(loader, programClasses));
+            result.setConstantsRow(row);
+            if (result.getOutcome() == WorkerResult.Outcome.VIOLATION) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    private WorkerResult run(ClassLoader loader) {
+        currentClass = "";
+        currentMethod = "";
+        long start = System.nanoTime();
+        try {
+            for (String className : classNames) {
+                currentClass = className;
+                // Call method <clinit>
+                currentMethod = "<clinit>";
+                Class<?> clazz = Class.forName(className, true, loader);
+                // Call method <init>
+                currentMethod = "<init>";
+                try {
+                    clazz.getDeclaredConstructor().newInstance();
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        } catch (Throwable e) {
+            return this.failure(e, System.nanoTime() - start);
+        }
+        return new WorkerResult(WorkerResult.Outcome.SUCCESS, "", 0, "", "", System.nanoTime() - start);
+    }
+
+    private WorkerResult failure(Throwable e, long elapsedTime) {
+        Throwable cause = Worker.getCause(e);
+        cause.printStackTrace();
+        WorkerResult.Outcome outcome = (cause instanceof ContractCheckException) ?
+                WorkerResult.Outcome.VIOLATION : WorkerResult.Outcome.EXCEPTION;
+        // Find the innermost initializer of the program on the stack
+        String failedClass = currentClass;
+        String failedMethod = currentMethod;
+        for (StackTraceElement element : cause.getStackTrace()) {
+            if (programClasses.contains(element.getClassName()) &&
+                    element.getMethodName().startsWith("<")) {
+                failedClass = element.getClassName();
+                failedMethod = element.getMethodName();
+                break;
+            }
+        }
+        return new WorkerResult(outcome,
+                cause.getClass().getName(),
+                WorkerResult.hashStack(cause),
+                failedClass,
+                failedMethod,
+                elapsedTime);
+    }
+
+    private static Throwable getCause(Throwable e) {
+        Throwable cause = null;
+        Throwable result = e;
+
+        while((cause = result.getCause()) != null && (result != cause)) {
+            result = cause;
+        }
+        return result;
+    }
+
+    /**
+     * Load the runtime and the given classes without initializing them. It
+     * is used to dump a Class Data Sharing archive.
+     * @param classNames classes to load
+     */
+    private static void preload(String[] classNames) throws IOException {
+        ClassLoader loader = Worker.class.getClassLoader();
+        new Worker(new String[0]).run().write(new ByteArrayOutputStream());
+        new WorkerResult(WorkerResult.Outcome.EXCEPTION,
+                ContractCheckException.class.getName(), 0, "", "", 0).write(new ByteArrayOutputStream());
+        for (String className : classNames) {
+            try {
+                Class.forName(className, false, loader);
+            } catch (ClassNotFoundException | LinkageError e) {
+                System.err.println("Cannot preload " + className + ": " + e);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals(Worker.PRELOAD)) {
+            Worker.preload(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        // Keep the standard output for results only
+        OutputStream results = new FileOutputStream(FileDescriptor.out);
+        System.setOut(System.err);
+
+        long[][] constants = null;
+        if (args.length > 1 && args[0].equals(Worker.CONSTANTS)) {
+            try (InputStream in = new FileInputStream(args[1])) {
+                constants = ConstantsTable.read(in);
+            }
+            args = Arrays.copyOfRange(args, 2, args.length);
+        }
+        Worker worker = new Worker(args);
+        worker.setConstants(constants);
+        WorkerResult result = worker.run();
+        result.write(results);
+        switch (result.getOutcome()) {
+        case VIOLATION:
+            Runtime.getRuntime().exit(WorkerResult.ERRORCODE_VIOLATION);
+            break;
+        case EXCEPTION:
+            Runtime.getRuntime().exit(WorkerResult.ERRORCODE_EXCEPTION);
+            break;
+        case SUCCESS:
+        default:
+            break;
+        }
+    }
+}
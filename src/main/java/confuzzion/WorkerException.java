@@ -0,0 +1,23 @@
+package confuzzion;
+
+/**
+ * Class WorkerException is thrown when a program executed in a separate JVM
+ * failed with an exception that is not a contract violation
+ */
+public class WorkerException extends Exception {
+    /**
+     * Generated serialVersionUID
+     */
+    private static final long serialVersionUID = -3021645218537307115L;
+    private WorkerResult result;
+
+    public WorkerException(WorkerResult result) {
+        super(result.getExceptionClass() + " in " +
+                result.getFailedClass() + "." + result.getFailedMethod());
+        this.result = result;
+    }
+
+    public WorkerResult getResult() {
+        return result;
+    }
+}
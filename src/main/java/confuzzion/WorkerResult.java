@@ -0,0 +1,180 @@
+package confuzzion;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Result of one program execution sent by the Worker to the fuzzer.
+ * It is written in a compact binary form on the standard output of the
+ * worker JVM.
+ * This class is part of the runtime: it must not depend on Soot or any
+ * library.
+ */
+public class WorkerResult {
+    public static final int ERRORCODE_VIOLATION = 200;
+    public static final int ERRORCODE_EXCEPTION = 1;
+
+    private static final int MAGIC = 0x43465a52;
+    private static final int STACK_DEPTH = 16;
+
+    public enum Outcome {
+        SUCCESS, /* All classes have been initialized and instantiated. */
+        VIOLATION, /* A contract check failed. */
+        EXCEPTION /* Any other Throwable. */
+    }
+
+    private Outcome outcome;
+    private String exceptionClass;
+    private int stackHash;
+    private String failedClass;
+    private String failedMethod;
+    private long elapsedTime;
+    private int constantsRow;
+
+    public WorkerResult(Outcome outcome,
+            String exceptionClass,
+            int stackHash,
+            String failedClass,
+            String failedMethod,
+            long elapsedTime) {
+        this.outcome = outcome;
+        this.exceptionClass = exceptionClass;
+        this.stackHash = stackHash;
+        this.failedClass = failedClass;
+        this.failedMethod = failedMethod;
+        this.elapsedTime = elapsedTime;
+        this.constantsRow = 0;
+    }
+
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * @return name of the root cause class or an empty string
+     */
+    public String getExceptionClass() {
+        return exceptionClass;
+    }
+
+    /**
+     * @return hash of the methods in the stack trace of the root cause
+     */
+    public int getStackHash() {
+        return stackHash;
+    }
+
+    /**
+     * @return name of the program class whose initializer failed or an
+     *         empty string
+     */
+    public String getFailedClass() {
+        return failedClass;
+    }
+
+    /**
+     * @return "&lt;clinit&gt;", "&lt;init&gt;" or an empty string
+     */
+    public String getFailedMethod() {
+        return failedMethod;
+    }
+
+    /**
+     * @return execution time inside the worker in nanoseconds
+     */
+    public long getElapsedTime() {
+        return elapsedTime;
+    }
+
+    /**
+     * @return row of the ConstantsTable used by the execution
+     */
+    public int getConstantsRow() {
+        return constantsRow;
+    }
+
+    public void setConstantsRow(int constantsRow) {
+        this.constantsRow = constantsRow;
+    }
+
+    /**
+     * @return a value identifying similar failures
+     */
+    public long getSignature() {
+        return WorkerResult.signature(exceptionClass, stackHash);
+    }
+
+    public void write(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeByte(outcome.ordinal());
+        out.writeUTF(exceptionClass);
+        out.writeInt(stackHash);
+        out.writeUTF(failedClass);
+        out.writeUTF(failedMethod);
+        out.writeLong(elapsedTime);
+        out.writeInt(constantsRow);
+        out.flush();
+    }
+
+    /**
+     * Read a result written by write()
+     * @param stream input
+     * @return the result or null if the stream does not contain a result
+     * @throws IOException
+     */
+    public static WorkerResult read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        try {
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+            int outcome = in.readUnsignedByte();
+            if (outcome >= Outcome.values().length) {
+                return null;
+            }
+            WorkerResult result = new WorkerResult(Outcome.values()[outcome],
+                    in.readUTF(),
+                    in.readInt(),
+                    in.readUTF(),
+                    in.readUTF(),
+                    in.readLong());
+            result.setConstantsRow(in.readInt());
+            return result;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Hash the methods of the top of the stack trace. Line numbers are
+     * ignored.
+     * @param e a Throwable
+     * @return hash of the stack trace
+     */
+    public static int hashStack(Throwable e) {
+        int hash = 0;
+        StackTraceElement[] stack = e.getStackTrace();
+        for (int i = 0; i < stack.length && i < STACK_DEPTH; i++) {
+            hash = 31 * hash + stack[i].getClassName().hashCode();
+            hash = 31 * hash + stack[i].getMethodName().hashCode();
+        }
+        return hash;
+    }
+
+    /**
+     * @param e a Throwable
+     * @return a value identifying similar failures
+     */
+    public static long signature(Throwable e) {
+        return WorkerResult.signature(e.getClass().getName(), WorkerResult.hashStack(e));
+    }
+
+    private static long signature(String exceptionClass, int stackHash) {
+        return ((long)exceptionClass.hashCode() << 32) | (stackHash & 0xffffffffL);
+    }
+}